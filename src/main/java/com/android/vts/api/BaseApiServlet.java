@@ -16,13 +16,22 @@
 
 package com.android.vts.api;
 
+import com.android.vts.util.AccessTokenVerifier;
+import com.android.vts.util.CachedAccessTokenVerifier;
+import com.android.vts.util.Oauth2AccessTokenVerifier;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.apphosting.api.ApiProxy;
+import com.google.protobuf.CodedInputStream;
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.util.Properties;
 import java.util.logging.Logger;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.binary.Base64InputStream;
 
 /** An abstract class to be subclassed to create API Servlet */
 public class BaseApiServlet extends HttpServlet {
@@ -41,6 +50,18 @@ public class BaseApiServlet extends HttpServlet {
      */
     protected int MAX_ENTITY_SIZE_PER_TRANSACTION = 300;
 
+    /** The size of the buffers used while decoding a posted message body. */
+    private static final int PAYLOAD_BUFFER_SIZE = 64 * 1024;
+
+    /** The maximum decoded size of a posted protobuf message. */
+    private static final int MAX_PAYLOAD_SIZE = 256 * 1024 * 1024;
+
+    /** The application name reported when verifying access tokens. */
+    private static final String SERVICE_NAME = "VTS Dashboard";
+
+    /** Verifier for the access tokens attached to posted messages, shared by all API servlets. */
+    protected static AccessTokenVerifier accessTokenVerifier;
+
     @Override
     public void init(ServletConfig cfg) throws ServletException {
         super.init(cfg);
@@ -56,6 +77,24 @@ public class BaseApiServlet extends HttpServlet {
                 env.getAttributes()
                         .get("com.google.appengine.runtime.default_version_hostname")
                         .toString();
+
+        synchronized (BaseApiServlet.class) {
+            if (accessTokenVerifier == null) {
+                accessTokenVerifier =
+                        new CachedAccessTokenVerifier(
+                                new Oauth2AccessTokenVerifier(SERVICE_NAME),
+                                MemcacheServiceFactory.getMemcacheService());
+            }
+        }
+    }
+
+    /**
+     * Replace the verifier used for the access tokens attached to posted messages.
+     *
+     * @param verifier The AccessTokenVerifier to use.
+     */
+    public static synchronized void setAccessTokenVerifier(AccessTokenVerifier verifier) {
+        accessTokenVerifier = verifier;
     }
 
     protected void setAccessControlHeaders(HttpServletResponse resp) {
@@ -64,4 +103,25 @@ public class BaseApiServlet extends HttpServlet {
         resp.addHeader("Access-Control-Allow-Headers", "Content-Type");
         resp.addHeader("Access-Control-Max-Age", "86400");
     }
+
+    /**
+     * Get a protobuf input stream which decodes the Base64 request body while it is read.
+     *
+     * <p>Only bounded buffers are held while decoding, so the payload never exists as a whole
+     * String or byte array on the heap before it is parsed.
+     *
+     * @param request The request whose body is a Base64 encoded protobuf message.
+     * @return The CodedInputStream to parse the message from.
+     */
+    protected CodedInputStream getBase64PayloadStream(HttpServletRequest request)
+            throws IOException {
+        Base64InputStream decodedStream =
+                new Base64InputStream(
+                        new BufferedInputStream(request.getInputStream(), PAYLOAD_BUFFER_SIZE));
+        CodedInputStream codedInputStream =
+                CodedInputStream.newInstance(
+                        new BufferedInputStream(decodedStream, PAYLOAD_BUFFER_SIZE));
+        codedInputStream.setSizeLimit(MAX_PAYLOAD_SIZE);
+        return codedInputStream;
+    }
 }
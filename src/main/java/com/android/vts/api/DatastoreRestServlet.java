@@ -21,41 +21,61 @@ import com.android.vts.entity.BranchEntity;
 import com.android.vts.entity.BuildTargetEntity;
 import com.android.vts.entity.CodeCoverageEntity;
 import com.android.vts.entity.CoverageEntity;
+import com.android.vts.entity.DashboardUploadEntity;
 import com.android.vts.entity.DashboardEntity;
 import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.DictionaryEntity;
 import com.android.vts.entity.HalApiEntity;
 import com.android.vts.entity.ProfilingPointRunEntity;
+import com.android.vts.entity.RunBucketEntity;
 import com.android.vts.entity.TestCaseRunEntity;
 import com.android.vts.entity.TestEntity;
 import com.android.vts.entity.TestPlanEntity;
 import com.android.vts.entity.TestPlanRunEntity;
 import com.android.vts.entity.TestRunEntity;
+import com.android.vts.entity.UploadLedgerEntity;
 import com.android.vts.proto.VtsReportMessage;
 import com.android.vts.proto.VtsReportMessage.DashboardPostMessage;
 import com.android.vts.proto.VtsReportMessage.TestPlanReportMessage;
 import com.android.vts.proto.VtsReportMessage.TestReportMessage;
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.jackson.JacksonFactory;
-import com.google.api.services.oauth2.Oauth2;
+import com.android.vts.util.AsyncFetch;
+import com.android.vts.util.KnownEntityCache;
+import com.android.vts.util.MatchingKeyCache;
 import com.google.api.services.oauth2.model.Tokeninfo;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Supplier;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.googlecode.objectify.Result;
 
 import java.io.IOException;
+import java.security.DigestOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 
 import com.google.appengine.api.datastore.Key;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.binary.Base64;
 
 import static com.googlecode.objectify.ObjectifyService.ofy;
 
@@ -63,13 +83,38 @@ import static com.googlecode.objectify.ObjectifyService.ofy;
 /** REST endpoint for posting data to the Dashboard. */
 public class DatastoreRestServlet extends BaseApiServlet {
     private static String SERVICE_CLIENT_ID;
-    private static final String SERVICE_NAME = "VTS Dashboard";
+
+    /** Request parameter selecting the accept-then-process mode for posted messages. */
+    private static final String ASYNC_PARAM = "async";
+
+    /** Parameter identifying an upload accepted in asynchronous mode. */
+    static final String UPLOAD_ID_PARAM = "uploadId";
+
+    private static final String UPLOAD_QUEUE_NAME = "dashboardUploadQueue";
+    private static final String UPLOAD_TASK_URL = "/task/datastore_upload";
+
+    /** Metadata entities known to be stored already, shared by all requests of the instance. */
+    private static final KnownEntityCache knownEntityCache =
+            new KnownEntityCache(MemcacheServiceFactory.getMemcacheService());
 
     @Override
     public void init(ServletConfig cfg) throws ServletException {
         super.init(cfg);
 
         SERVICE_CLIENT_ID = this.systemConfigProp.getProperty("appengine.serviceClientID");
+        configureEncodings(this.systemConfigProp);
+    }
+
+    /**
+     * Choose the encodings in which uploaded entities are saved.
+     *
+     * @param systemConfigProp The system configuration properties.
+     */
+    static void configureEncodings(Properties systemConfigProp) {
+        ProfilingPointRunEntity.setPackedEncodingEnabled(
+                Boolean.parseBoolean(systemConfigProp.getProperty("datastore.packProfilingValues")));
+        TestCaseRunEntity.setPackedEncodingEnabled(
+                Boolean.parseBoolean(systemConfigProp.getProperty("datastore.packTestCaseResults")));
     }
 
     @Override
@@ -78,9 +123,7 @@ public class DatastoreRestServlet extends BaseApiServlet {
         // Retrieve the params
         DashboardPostMessage postMessage;
         try {
-            String payload = request.getReader().lines().collect(Collectors.joining());
-            byte[] value = Base64.decodeBase64(payload);
-            postMessage = DashboardPostMessage.parseFrom(value);
+            postMessage = DashboardPostMessage.parseFrom(getBase64PayloadStream(request));
         } catch (IOException e) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             log.error("Invalid proto: " + e.getLocalizedMessage());
@@ -93,24 +136,49 @@ public class DatastoreRestServlet extends BaseApiServlet {
             String accessToken = postMessage.getAccessToken();
             log.debug("accessToken => " + accessToken);
 
-            GoogleCredential credential = new GoogleCredential().setAccessToken(accessToken);
-            Oauth2 oauth2 =
-                    new Oauth2.Builder(new NetHttpTransport(), new JacksonFactory(), credential)
-                            .setApplicationName(SERVICE_NAME)
-                            .build();
-            Tokeninfo tokenInfo = oauth2.tokeninfo().setAccessToken(accessToken).execute();
+            Tokeninfo tokenInfo = accessTokenVerifier.verify(accessToken);
             if (tokenInfo.getIssuedTo().equals(SERVICE_CLIENT_ID)) {
-                for (TestReportMessage testReportMessage : postMessage.getTestReportList()) {
-                    this.insertTestReport(testReportMessage);
-                }
-
-                for (TestPlanReportMessage planReportMessage :
-                        postMessage.getTestPlanReportList()) {
-                    this.insertTestPlanReport(planReportMessage);
+                // The message is hashed once as it is serialized, and the digest passed down.
+                String digest = getDigest(postMessage);
+                if (UploadLedgerEntity.isRecorded(digest)) {
+                    log.info("Skipping duplicate upload " + digest);
+                    resultMsg = "Duplicate upload ignored!!";
+                    response.setStatus(HttpServletResponse.SC_OK);
+                } else if (Boolean.parseBoolean(request.getParameter(ASYNC_PARAM))) {
+                    this.queuePostMessage(getStoredPayload(postMessage), response);
+                    return;
+                } else {
+                    String owner = UUID.randomUUID().toString();
+                    switch (UploadLedgerEntity.claim(
+                            digest,
+                            owner,
+                            postMessage.getTestReportCount(),
+                            postMessage.getTestPlanReportCount())) {
+                        case DONE:
+                            log.info("Skipping duplicate upload " + digest);
+                            resultMsg = "Duplicate upload ignored!!";
+                            response.setStatus(HttpServletResponse.SC_OK);
+                            break;
+                        case IN_PROGRESS:
+                            log.info("Duplicate upload in progress " + digest);
+                            resultMsg = "Duplicate upload in progress!!";
+                            response.setStatus(HttpServletResponse.SC_CONFLICT);
+                            break;
+                        default:
+                            try {
+                                insertPostMessage(
+                                        postMessage,
+                                        this.MAX_ENTITY_SIZE_PER_TRANSACTION,
+                                        keys -> {});
+                            } catch (RuntimeException e) {
+                                UploadLedgerEntity.release(digest, owner);
+                                throw e;
+                            }
+                            UploadLedgerEntity.complete(digest);
+                            resultMsg = "Success!!";
+                            response.setStatus(HttpServletResponse.SC_OK);
+                    }
                 }
-
-                response.setStatus(HttpServletResponse.SC_OK);
-                resultMsg = "Success!!";
             } else {
                 log.warn("service_client_id didn't match!");
                 log.debug("SERVICE_CLIENT_ID => " + tokenInfo.getIssuedTo());
@@ -127,12 +195,144 @@ public class DatastoreRestServlet extends BaseApiServlet {
         response.getWriter().write("{'result_msg': " + resultMsg + "}");
     }
 
+    /**
+     * Report the processing state of an upload accepted in asynchronous mode.
+     *
+     * <p>The upload is selected by the uploadId parameter returned when it was accepted.
+     */
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        DashboardUploadEntity upload = null;
+        try {
+            long uploadId = Long.parseLong(request.getParameter(UPLOAD_ID_PARAM));
+            upload = ofy().load().type(DashboardUploadEntity.class).id(uploadId).now();
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        if (upload == null) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("upload_id", upload.getId());
+        resultMap.put("status", upload.getStatus().name());
+        resultMap.put("message", upload.getMessage());
+        resultMap.put("created", upload.getCreated());
+        resultMap.put("updated", upload.getUpdated());
+        this.writeJson(response, resultMap);
+    }
+
+    /**
+     * Persist a verified message and queue it for processing, without waiting for its data to be
+     * saved.
+     *
+     * @param payload The verified message to process, from getStoredPayload.
+     * @param response The response to report the accepted upload to.
+     */
+    private void queuePostMessage(byte[] payload, HttpServletResponse response)
+            throws IOException {
+        DashboardUploadEntity upload = DashboardUploadEntity.create(payload);
+        QueueFactory.getQueue(UPLOAD_QUEUE_NAME)
+                .add(
+                        TaskOptions.Builder.withUrl(UPLOAD_TASK_URL)
+                                .param(UPLOAD_ID_PARAM, String.valueOf(upload.getId()))
+                                .method(TaskOptions.Method.POST));
+
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+        Map<String, Object> resultMap = new HashMap<>();
+        resultMap.put("result_msg", "Accepted!!");
+        resultMap.put("upload_id", upload.getId());
+        resultMap.put("status", upload.getStatus().name());
+        this.writeJson(response, resultMap);
+    }
+
+    private void writeJson(HttpServletResponse response, Map<String, Object> resultMap)
+            throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(new Gson().toJson(resultMap));
+    }
+
+    /**
+     * Serialize a verified dashboard post message for storage.
+     *
+     * <p>The access token was already verified, so it is left out. A retried upload may carry a
+     * refreshed token, which must not change its digest.
+     *
+     * @param postMessage The verified message to serialize.
+     * @return The serialized message without its access token.
+     */
+    static byte[] getStoredPayload(DashboardPostMessage postMessage) {
+        return postMessage.toBuilder().clearAccessToken().build().toByteArray();
+    }
+
+    /**
+     * Compute the digest identifying repeated uploads of a dashboard post message.
+     *
+     * <p>The message is hashed as it is serialized, without holding a serialized copy of it.
+     *
+     * @param postMessage The verified message to digest.
+     * @return The hex encoded SHA-256 digest of the message, as stored by getStoredPayload.
+     */
+    static String getDigest(DashboardPostMessage postMessage) {
+        DigestOutputStream digestStream =
+                new DigestOutputStream(
+                        ByteStreams.nullOutputStream(), DigestUtils.getSha256Digest());
+        try {
+            postMessage.toBuilder().clearAccessToken().build().writeTo(digestStream);
+        } catch (IOException e) {
+            // Writing to a null stream does not fail.
+            throw new IllegalStateException(e);
+        }
+        return Hex.encodeHexString(digestStream.getMessageDigest().digest());
+    }
+
+    /**
+     * Compute the digest identifying repeated uploads of a stored dashboard post message.
+     *
+     * @param payload The serialized message, from getStoredPayload.
+     * @return The hex encoded SHA-256 digest of the message.
+     */
+    static String getDigest(byte[] payload) {
+        return DigestUtils.sha256Hex(payload);
+    }
+
+    /**
+     * Upload all of the reports contained in a dashboard post message. The caller claims the
+     * message in the upload ledger beforehand and completes the claim afterwards.
+     *
+     * @param postMessage The verified message containing data to upload.
+     * @param maxEntitySize The maximum number of entities to save in one batch.
+     * @param writeJournal Called with the keys of the runs about to be written, before any of
+     *     them or their descendants are.
+     */
+    static void insertPostMessage(
+            DashboardPostMessage postMessage,
+            int maxEntitySize,
+            Consumer<List<com.googlecode.objectify.Key<?>>> writeJournal) {
+        for (TestReportMessage testReportMessage : postMessage.getTestReportList()) {
+            insertTestReport(testReportMessage, maxEntitySize, writeJournal);
+        }
+
+        for (TestPlanReportMessage planReportMessage : postMessage.getTestPlanReportList()) {
+            insertTestPlanReport(planReportMessage, maxEntitySize, writeJournal);
+        }
+    }
+
     /**
      * Upload data from a test report message
      *
      * @param report The test report containing data to upload.
+     * @param maxEntitySize The maximum number of entities to save in one batch.
+     * @param writeJournal Called with the keys about to be written.
      */
-    private void insertTestReport(TestReportMessage report) {
+    private static void insertTestReport(
+            TestReportMessage report,
+            int maxEntitySize,
+            Consumer<List<com.googlecode.objectify.Key<?>>> writeJournal) {
 
         if (!report.hasStartTimestamp()
                 || !report.hasEndTimestamp()
@@ -145,28 +345,24 @@ public class DatastoreRestServlet extends BaseApiServlet {
         }
 
         List<TestEntity> testEntityList = new ArrayList<>();
-        List<TestRunEntity> testRunEntityList = new ArrayList<>();
         List<BranchEntity> branchEntityList = new ArrayList<>();
         List<BuildTargetEntity> buildTargetEntityList = new ArrayList<>();
         List<CoverageEntity> coverageEntityList = new ArrayList<>();
-        List<CodeCoverageEntity> codeCoverageEntityList = new ArrayList<>();
         List<DeviceInfoEntity> deviceInfoEntityList = new ArrayList<>();
         List<ProfilingPointRunEntity> profilingPointRunEntityList = new ArrayList<>();
         List<TestCaseRunEntity> testCaseRunEntityList = new ArrayList<>();
         List<ApiCoverageEntity> apiCoverageEntityList = new ArrayList<>();
 
-        List<?> allEntityList =
+        // Entity groups which don't depend on any other write and may be saved concurrently.
+        List<List<? extends DashboardEntity>> independentEntityLists =
                 Arrays.asList(
                         testEntityList,
                         branchEntityList,
                         buildTargetEntityList,
                         coverageEntityList,
-                        codeCoverageEntityList,
                         deviceInfoEntityList,
                         profilingPointRunEntityList,
-                        testCaseRunEntityList,
-                        apiCoverageEntityList,
-                        testRunEntityList);
+                        apiCoverageEntityList);
 
         long passCount = 0;
         long failCount = 0;
@@ -361,7 +557,7 @@ public class DatastoreRestServlet extends BaseApiServlet {
                         hasCodeCoverage,
                         new ArrayList<>(),
                         linkList);
-        testRunEntityList.add(testRunEntity);
+        testRunEntity.setDeviceAttributes(deviceInfoEntityList);
 
         CodeCoverageEntity codeCoverageEntity =
                 new CodeCoverageEntity(
@@ -369,63 +565,85 @@ public class DatastoreRestServlet extends BaseApiServlet {
                         testRunEntity.getKey(),
                         coveredLineCount,
                         totalLineCount);
-        codeCoverageEntityList.add(codeCoverageEntity);
 
+        // Branches and build targets are shared by many runs and never change once stored, so the
+        // ones already stored aren't saved again. Tests are always saved, since their state can
+        // be changed back and forth by uploads handled on other instances.
+        knownEntityCache.removeKnown(branchEntityList);
+        knownEntityCache.removeKnown(buildTargetEntityList);
+
+        // Test case run ids are allocated before anything is written so that the whole run can be
+        // journaled up front, and removed again if the upload is retried after a partial write.
+        Iterator<com.googlecode.objectify.Key<TestCaseRunEntity>> testCaseRunKeys =
+                ofy().factory()
+                        .allocateIds(TestCaseRunEntity.class, testCaseRunEntityList.size())
+                        .iterator();
+        List<com.googlecode.objectify.Key<?>> writtenKeys = new ArrayList<>();
+        writtenKeys.add(testRunKey);
+        for (TestCaseRunEntity testCaseRunEntity : testCaseRunEntityList) {
+            com.googlecode.objectify.Key<TestCaseRunEntity> testCaseRunKey = testCaseRunKeys.next();
+            testCaseRunEntity.setId(testCaseRunKey.getId());
+            writtenKeys.add(testCaseRunKey);
+        }
+        writeJournal.accept(writtenKeys);
+
+        // Issue every independent batch at once so the latency is bounded by the largest group
+        // rather than the sum of all of them.
+        List<Result<?>> pendingSaves = new ArrayList<>();
+        for (List<? extends DashboardEntity> entityList : independentEntityLists) {
+            pendingSaves.addAll(DashboardEntity.saveAllAsync(entityList, maxEntitySize));
+        }
+        List<Result<Map<com.googlecode.objectify.Key<TestCaseRunEntity>, TestCaseRunEntity>>>
+                testCaseRunSaves =
+                        DashboardEntity.saveAllAsync(testCaseRunEntityList, maxEntitySize);
+
+        // The test run references the test case runs, so those have to land first.
+        DashboardEntity.waitAll(testCaseRunSaves);
+        List<Long> testCaseIds =
+                testCaseRunEntityList
+                        .stream()
+                        .map(testCaseRunEntity -> testCaseRunEntity.getId())
+                        .collect(Collectors.toList());
+        testRunEntity.setTestCaseIds(testCaseIds);
+        pendingSaves.forEach(result -> result.now());
+        knownEntityCache.addAll(branchEntityList);
+        knownEntityCache.addAll(buildTargetEntityList);
+        DictionaryEntity.addValues(
+                DictionaryEntity.BRANCHES,
+                branchEntityList.stream().map(BranchEntity::getName).collect(Collectors.toList()));
+        DictionaryEntity.addValues(
+                DictionaryEntity.BUILD_FLAVORS,
+                buildTargetEntityList
+                        .stream()
+                        .map(BuildTargetEntity::getName)
+                        .collect(Collectors.toList()));
+
+        // The test run is written last, together with its code coverage summary and its run
+        // bucket in the same entity group, so the run only becomes visible once all of its
+        // children are stored.
         ofy().transact(
                         () -> {
-                            List<Long> testCaseIds = new ArrayList<>();
-                            for (Object entity : allEntityList) {
-                                if (entity instanceof List) {
-                                    List listEntity = (List) entity;
-                                    if (listEntity.size() > 0
-                                            && listEntity.get(0) instanceof TestCaseRunEntity) {
-                                        Map<
-                                                        com.googlecode.objectify.Key<
-                                                                TestCaseRunEntity>,
-                                                        TestCaseRunEntity>
-                                                testCaseRunEntityMap =
-                                                        DashboardEntity.saveAll(
-                                                                testCaseRunEntityList,
-                                                                this
-                                                                        .MAX_ENTITY_SIZE_PER_TRANSACTION);
-
-                                        testCaseIds =
-                                                testCaseRunEntityMap
-                                                        .values()
-                                                        .stream()
-                                                        .map(
-                                                                testCaseRunEntity ->
-                                                                        testCaseRunEntity.getId())
-                                                        .collect(Collectors.toList());
-                                    } else if (listEntity.size() > 0
-                                            && listEntity.get(0) instanceof TestRunEntity) {
-                                        testRunEntityList.get(0).setTestCaseIds(testCaseIds);
-                                        DashboardEntity.saveAll(
-                                                testRunEntityList,
-                                                this.MAX_ENTITY_SIZE_PER_TRANSACTION);
-                                    } else {
-                                        List<DashboardEntity> dashboardEntityList =
-                                                (List<DashboardEntity>) entity;
-                                        DashboardEntity.saveAll(
-                                                dashboardEntityList,
-                                                this.MAX_ENTITY_SIZE_PER_TRANSACTION);
-                                    }
-                                }
-                            }
+                            ofy().save().entities(testRunEntity, codeCoverageEntity).now();
+                            RunBucketEntity.addRun(testEntity.getOldKey(), testRunEntity.getId());
                         });
+        // Pages listing the runs of the test have to pick up the new run.
+        MatchingKeyCache.invalidate(testEntity.getOldKey());
     }
 
     /**
      * Upload data from a test plan report message
      *
      * @param report The test plan report containing data to upload.
+     * @param maxEntitySize The maximum number of entities to save in one batch.
+     * @param writeJournal Called with the keys about to be written.
      */
-    private void insertTestPlanReport(TestPlanReportMessage report) {
+    private static void insertTestPlanReport(
+            TestPlanReportMessage report,
+            int maxEntitySize,
+            Consumer<List<com.googlecode.objectify.Key<?>>> writeJournal) {
         List<DeviceInfoEntity> deviceInfoEntityList = new ArrayList<>();
         List<HalApiEntity> halApiEntityList = new ArrayList<>();
 
-        List allEntityList = Arrays.asList(deviceInfoEntityList, halApiEntityList);
-
         List<String> testModules = report.getTestModuleNameList();
         List<Long> testTimes = report.getTestModuleStartTimestampList();
         if (testModules.size() != testTimes.size() || !report.hasTestPlanName()) {
@@ -455,7 +673,24 @@ public class DatastoreRestServlet extends BaseApiServlet {
         long endTimestamp = -1;
         String testBuildId = null;
         long testType = -1;
+        // Start the device queries of every run before reading any of them, so the queries
+        // overlap instead of running one after another.
+        List<Supplier<List<Entity>>> deviceInfoQueries = new ArrayList<>();
+        for (TestRunEntity testRunEntity : testRunEntityMap.values()) {
+            deviceInfoQueries.add(
+                    AsyncFetch.query(
+                            new Query(DeviceInfoEntity.KIND).setAncestor(testRunEntity.getKey())));
+        }
+
         Set<DeviceInfoEntity> deviceInfoEntitySet = new HashSet<>();
+        for (Supplier<List<Entity>> deviceInfoQuery : deviceInfoQueries) {
+            for (Entity device : deviceInfoQuery.get()) {
+                DeviceInfoEntity deviceInfoEntity = DeviceInfoEntity.fromEntity(device);
+                if (deviceInfoEntity != null) {
+                    deviceInfoEntitySet.add(deviceInfoEntity);
+                }
+            }
+        }
         for (TestRunEntity testRunEntity : testRunEntityMap.values()) {
             passCount += testRunEntity.getPassCount();
             failCount += testRunEntity.getFailCount();
@@ -467,16 +702,6 @@ public class DatastoreRestServlet extends BaseApiServlet {
             }
             testType = testRunEntity.getType();
             testBuildId = testRunEntity.getTestBuildId();
-
-            List<DeviceInfoEntity> deviceInfoEntityListWithTestRunKey =
-                    ofy().load()
-                            .type(DeviceInfoEntity.class)
-                            .ancestor(testRunEntity.getOfyKey())
-                            .list();
-
-            for (DeviceInfoEntity deviceInfoEntity : deviceInfoEntityListWithTestRunKey) {
-                deviceInfoEntitySet.add(deviceInfoEntity);
-            }
         }
 
         if (startTimestamp < 0 || testBuildId == null || testType == -1) {
@@ -500,6 +725,7 @@ public class DatastoreRestServlet extends BaseApiServlet {
                         0L,
                         0L,
                         testRunKeyList);
+        testPlanRunEntity.setDeviceAttributes(deviceInfoEntitySet);
 
         // Create the device infos.
         for (DeviceInfoEntity device : deviceInfoEntitySet) {
@@ -535,20 +761,20 @@ public class DatastoreRestServlet extends BaseApiServlet {
             halApiEntityList.add(halApiEntity);
         }
 
+        writeJournal.accept(Arrays.asList(testPlanRunEntity.getOfyKey()));
+        List<Result<?>> pendingSaves = new ArrayList<>();
+        pendingSaves.addAll(DashboardEntity.saveAllAsync(deviceInfoEntityList, maxEntitySize));
+        pendingSaves.addAll(DashboardEntity.saveAllAsync(halApiEntityList, maxEntitySize));
+        pendingSaves.forEach(result -> result.now());
+
+        Key testPlanKey = KeyFactory.createKey(TestPlanEntity.KIND, testPlanName);
         ofy().transact(
                         () -> {
                             testPlanEntity.save();
                             testPlanRunEntity.save();
-                            for (Object entity : allEntityList) {
-                                List<DashboardEntity> dashboardEntityList =
-                                        (List<DashboardEntity>) entity;
-                                Map<com.googlecode.objectify.Key<DashboardEntity>, DashboardEntity>
-                                        mapInfo =
-                                                DashboardEntity.saveAll(
-                                                        dashboardEntityList,
-                                                        this.MAX_ENTITY_SIZE_PER_TRANSACTION);
-                            }
+                            RunBucketEntity.addRun(testPlanKey, testPlanRunEntity.getId());
                         });
+        MatchingKeyCache.invalidate(testPlanKey);
 
         // Add the task to calculate total number API list.
         testPlanRunEntity.addCoverageApiTask();
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.api;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import com.android.vts.entity.DashboardUploadEntity;
+import com.android.vts.entity.DashboardUploadEntity.Status;
+import com.android.vts.entity.UploadLedgerEntity;
+import com.android.vts.entity.UploadLedgerEntity.ClaimResult;
+import com.android.vts.proto.VtsReportMessage.DashboardPostMessage;
+import java.io.IOException;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Task queue worker saving the data of uploads accepted by DatastoreRestServlet in asynchronous
+ * mode.
+ *
+ * <p>Processing an upload is idempotent: the runs it writes are journaled on the upload before they
+ * are written, and a retried task deletes whatever the failed attempt left behind before saving
+ * the upload again. The upload is claimed in the upload ledger under its own id first, so a
+ * duplicate of it being saved by another request is left to that request.
+ */
+@Slf4j
+public class DatastoreUploadTaskServlet extends BaseApiServlet {
+
+    /** Prefix of the upload ledger owner of an upload processed by this task. */
+    private static final String UPLOAD_OWNER_PREFIX = "upload-";
+
+    @Override
+    public void init(ServletConfig cfg) throws ServletException {
+        super.init(cfg);
+
+        DatastoreRestServlet.configureEncodings(this.systemConfigProp);
+    }
+
+    @Override
+    public void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        String uploadIdParam = request.getParameter(DatastoreRestServlet.UPLOAD_ID_PARAM);
+        DashboardUploadEntity upload;
+        try {
+            long uploadId = Long.parseLong(uploadIdParam);
+            upload = ofy().load().type(DashboardUploadEntity.class).id(uploadId).now();
+        } catch (NumberFormatException e) {
+            log.error("Invalid upload id: " + uploadIdParam);
+            return;
+        }
+        if (upload == null) {
+            log.warn("Upload doesn't exist: " + uploadIdParam);
+            return;
+        }
+        if (upload.getStatus() == Status.SUCCEEDED) {
+            // The task was delivered more than once.
+            return;
+        }
+
+        String owner = UPLOAD_OWNER_PREFIX + upload.getId();
+        String digest = null;
+        try {
+            byte[] payload = upload.loadPayload();
+            digest = DatastoreRestServlet.getDigest(payload);
+            DashboardPostMessage postMessage = DashboardPostMessage.parseFrom(payload);
+            ClaimResult claim =
+                    UploadLedgerEntity.claim(
+                            digest,
+                            owner,
+                            postMessage.getTestReportCount(),
+                            postMessage.getTestPlanReportCount());
+            if (claim == ClaimResult.IN_PROGRESS) {
+                // Retry once the request saving the duplicate finished or gave up.
+                log.info("Duplicate upload in progress " + digest);
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            if (upload.getStatus() != Status.QUEUED
+                    && (claim == ClaimResult.CLAIMED
+                            || !UploadLedgerEntity.isCompletedBy(digest, owner))) {
+                // An earlier attempt may have saved part of the upload before failing, unless it
+                // was the attempt which completed it.
+                upload.deleteJournaledWrites();
+            }
+            if (claim == ClaimResult.DONE) {
+                log.info("Skipping duplicate upload " + digest);
+            } else {
+                upload.setStatus(Status.PROCESSING);
+                upload.save();
+                DatastoreRestServlet.insertPostMessage(
+                        postMessage, this.MAX_ENTITY_SIZE_PER_TRANSACTION, upload::journalWrites);
+                UploadLedgerEntity.complete(digest);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Error processing upload " + upload.getId(), e);
+            if (digest != null) {
+                UploadLedgerEntity.release(digest, owner);
+            }
+            upload.setStatus(Status.FAILED);
+            upload.setMessage(e.getMessage());
+            upload.save();
+            // Let the task queue retry the upload.
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+
+        upload.setStatus(Status.SUCCEEDED);
+        upload.setMessage(null);
+        upload.save();
+        upload.deletePayload();
+    }
+}
@@ -19,14 +19,9 @@ package com.android.vts.api;
 import com.android.vts.entity.TestSuiteFileEntity;
 import com.android.vts.entity.TestSuiteResultEntity;
 import com.android.vts.proto.TestSuiteResultMessageProto;
-import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.jackson.JacksonFactory;
-import com.google.api.services.oauth2.Oauth2;
 import com.google.api.services.oauth2.model.Tokeninfo;
 import com.google.gson.Gson;
 import com.googlecode.objectify.Key;
-import org.apache.commons.codec.binary.Base64;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -35,14 +30,12 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 
 /** REST endpoint for posting test suite data to the Dashboard. */
 public class TestSuiteResultRestServlet extends BaseApiServlet {
     private static String SERVICE_CLIENT_ID;
-    private static final String SERVICE_NAME = "VTS Dashboard";
     private static final Logger logger =
             Logger.getLogger(TestSuiteResultRestServlet.class.getName());
 
@@ -59,10 +52,9 @@ public class TestSuiteResultRestServlet extends BaseApiServlet {
         // Retrieve the params
         TestSuiteResultMessageProto.TestSuiteResultMessage testSuiteResultMessage;
         try {
-            String payload = request.getReader().lines().collect(Collectors.joining());
-            byte[] value = Base64.decodeBase64(payload);
             testSuiteResultMessage =
-                    TestSuiteResultMessageProto.TestSuiteResultMessage.parseFrom(value);
+                    TestSuiteResultMessageProto.TestSuiteResultMessage.parseFrom(
+                            getBase64PayloadStream(request));
         } catch (IOException e) {
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             logger.log(Level.WARNING, "Invalid proto: " + e.getLocalizedMessage());
@@ -74,12 +66,7 @@ public class TestSuiteResultRestServlet extends BaseApiServlet {
         if (testSuiteResultMessage.hasAccessToken()) {
             String accessToken = testSuiteResultMessage.getAccessToken();
             logger.log(Level.INFO, "accessToken => " + accessToken);
-            GoogleCredential credential = new GoogleCredential().setAccessToken(accessToken);
-            Oauth2 oauth2 =
-                    new Oauth2.Builder(new NetHttpTransport(), new JacksonFactory(), credential)
-                            .setApplicationName(SERVICE_NAME)
-                            .build();
-            Tokeninfo tokenInfo = oauth2.tokeninfo().setAccessToken(accessToken).execute();
+            Tokeninfo tokenInfo = accessTokenVerifier.verify(accessToken);
 
             if (tokenInfo.getIssuedTo().equals(SERVICE_CLIENT_ID)) {
                 String filePath = "suite_result/2019/04/06/132343.bin";
@@ -22,12 +22,16 @@ import com.android.vts.entity.BuildTargetEntity;
 import com.android.vts.entity.ApiCoverageExcludedEntity;
 import com.android.vts.entity.CodeCoverageEntity;
 import com.android.vts.entity.CoverageEntity;
+import com.android.vts.entity.DashboardUploadChunkEntity;
+import com.android.vts.entity.DashboardUploadEntity;
 import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.DictionaryEntity;
 import com.android.vts.entity.HalApiEntity;
 import com.android.vts.entity.ProfilingPointEntity;
 import com.android.vts.entity.ProfilingPointRunEntity;
 import com.android.vts.entity.ProfilingPointSummaryEntity;
 import com.android.vts.entity.RoleEntity;
+import com.android.vts.entity.RunBucketEntity;
 import com.android.vts.entity.TestAcknowledgmentEntity;
 import com.android.vts.entity.TestCaseRunEntity;
 import com.android.vts.entity.TestCoverageStatusEntity;
@@ -38,9 +42,13 @@ import com.android.vts.entity.TestRunEntity;
 import com.android.vts.entity.TestStatusEntity;
 import com.android.vts.entity.TestSuiteFileEntity;
 import com.android.vts.entity.TestSuiteResultEntity;
+import com.android.vts.entity.UploadLedgerEntity;
 import com.android.vts.entity.UserEntity;
+import com.android.vts.util.RpcAccounting;
 import com.google.api.client.extensions.appengine.datastore.AppEngineDataStoreFactory;
 import com.google.api.services.sheets.v4.SheetsScopes;
+import com.google.cloud.datastore.DatastoreOptions;
+import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
 
 import java.util.Arrays;
@@ -85,7 +93,10 @@ public class ObjectifyListener implements ServletContextListener {
      */
     @Override
     public void contextInitialized(ServletContextEvent servletContextEvent) {
-        ObjectifyService.init();
+        // Objectify's datastore calls are counted against the request which makes them.
+        ObjectifyService.init(
+                new ObjectifyFactory(
+                        RpcAccounting.wrap(DatastoreOptions.getDefaultInstance().getService())));
         ObjectifyService.register(BranchEntity.class);
         ObjectifyService.register(BuildTargetEntity.class);
 
@@ -112,6 +123,11 @@ public class ObjectifyListener implements ServletContextListener {
         ObjectifyService.register(TestAcknowledgmentEntity.class);
         ObjectifyService.register(RoleEntity.class);
         ObjectifyService.register(UserEntity.class);
+        ObjectifyService.register(DashboardUploadEntity.class);
+        ObjectifyService.register(DashboardUploadChunkEntity.class);
+        ObjectifyService.register(UploadLedgerEntity.class);
+        ObjectifyService.register(DictionaryEntity.class);
+        ObjectifyService.register(RunBucketEntity.class);
         ObjectifyService.begin();
         logger.log(Level.INFO, "Value Initialized from context.");
 
@@ -124,6 +140,7 @@ public class ObjectifyListener implements ServletContextListener {
                             .getResourceAsStream("config.properties");
 
             systemConfigProp.load(defaultInputStream);
+            RpcAccounting.setPropertyValues(systemConfigProp);
 
             servletContextEvent
                     .getServletContext()
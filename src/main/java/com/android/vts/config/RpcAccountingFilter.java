@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.config;
+
+import com.android.vts.util.RpcAccounting;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Servlet filter recording the datastore calls made by each page, API call, task and cron job,
+ * so that slow requests can be inspected on the admin page.
+ */
+public class RpcAccountingFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        RpcAccounting.install();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        String name = request.getClass().getSimpleName();
+        if (request instanceof HttpServletRequest) {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            name = httpRequest.getMethod() + " " + httpRequest.getRequestURI();
+        }
+        RpcAccounting.begin(name);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RpcAccounting.end();
+        }
+    }
+
+    @Override
+    public void destroy() {}
+}
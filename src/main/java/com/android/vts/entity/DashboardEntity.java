@@ -16,12 +16,23 @@
 
 package com.android.vts.entity;
 
+import com.android.vts.util.RpcAccounting;
+import com.google.appengine.api.ThreadManager;
+import com.google.apphosting.api.ApiProxy;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Result;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.stream.Collectors;
 
 import static com.googlecode.objectify.ObjectifyService.ofy;
@@ -53,4 +64,62 @@ public interface DashboardEntity extends Serializable {
                                                     entry -> entry.getValue()));
                         });
     }
+
+    /**
+     * Save List of entity without waiting for the datastore to acknowledge the writes.
+     *
+     * <p>Objectify on Cloud Datastore completes its asynchronous saves in the calling thread, so
+     * each chunk of maxEntitySize entities is saved on a request thread of its own, with its own
+     * Objectify context, and up to four chunks of one list are in flight at once. The saves are
+     * accounted to the calling request. Callers must call now() on the returned results before
+     * relying on the entities being stored.
+     *
+     * @param entityList The list of entities to save.
+     * @param maxEntitySize The maximum number of entities per batch put.
+     * @return The pending results, one per batch put.
+     */
+    static <T> List<Result<Map<Key<T>, T>>> saveAllAsync(List<T> entityList, int maxEntitySize) {
+        List<List<T>> partitionedList = Lists.partition(entityList, maxEntitySize);
+        List<Result<Map<Key<T>, T>>> results = new ArrayList<>();
+        if (partitionedList.isEmpty()) {
+            return results;
+        }
+
+        ThreadFactory threadFactory = null;
+        if (ApiProxy.getCurrentEnvironment() != null) {
+            threadFactory = ThreadManager.currentRequestThreadFactory();
+        }
+        if (threadFactory == null) {
+            threadFactory = Executors.defaultThreadFactory();
+        }
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(partitionedList.size(), 4), threadFactory);
+        for (List<T> subEntityList : partitionedList) {
+            Future<Map<Key<T>, T>> future =
+                    executor.submit(
+                            RpcAccounting.inCurrentRequest(
+                                    () ->
+                                            ObjectifyService.run(
+                                                    () ->
+                                                            ofy().save()
+                                                                    .entities(subEntityList)
+                                                                    .now())));
+            results.add(() -> Futures.getUnchecked(future));
+        }
+        executor.shutdown();
+        return results;
+    }
+
+    /**
+     * Wait for all of the pending results returned by saveAllAsync.
+     *
+     * @param results The pending batch put results.
+     * @return The map of all saved entities by key.
+     */
+    static <T> Map<Key<T>, T> waitAll(List<Result<Map<Key<T>, T>>> results) {
+        return results.stream()
+                .map(result -> result.now())
+                .flatMap(m -> m.entrySet().stream())
+                .collect(Collectors.toMap(entry -> entry.getKey(), entry -> entry.getValue()));
+    }
 }
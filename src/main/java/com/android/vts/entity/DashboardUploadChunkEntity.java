@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.entity;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/** Entity holding one slice of the raw payload of a queued dashboard upload. */
+@Entity(name = "DashboardUploadChunk")
+@NoArgsConstructor
+public class DashboardUploadChunkEntity {
+
+    /** The largest number of payload bytes stored in a single chunk entity. */
+    public static final int MAX_CHUNK_SIZE = 900 * 1024;
+
+    /** The one-based position of this chunk in the payload, since an id must not be zero */
+    @Id @Getter Long index;
+
+    /** The upload this chunk belongs to */
+    @Parent @Getter Key<DashboardUploadEntity> parent;
+
+    /** The payload bytes of this chunk */
+    @Getter byte[] data;
+
+    /**
+     * Create a DashboardUploadChunkEntity.
+     *
+     * @param parent The key of the upload this chunk belongs to.
+     * @param index The zero-based position of this chunk in the payload.
+     * @param data The payload bytes of this chunk.
+     */
+    public DashboardUploadChunkEntity(Key<DashboardUploadEntity> parent, long index, byte[] data) {
+        this.parent = parent;
+        this.index = index + 1;
+        this.data = data;
+    }
+
+    /**
+     * Get the key of a chunk of an upload.
+     *
+     * @param parent The key of the upload the chunk belongs to.
+     * @param index The zero-based position of the chunk in the payload.
+     * @return The key of the chunk.
+     */
+    public static Key<DashboardUploadChunkEntity> getKey(
+            Key<DashboardUploadEntity> parent, long index) {
+        return Key.create(parent, DashboardUploadChunkEntity.class, index + 1);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.entity;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Entity tracking a dashboard upload which was accepted and queued for processing.
+ *
+ * <p>The raw message is stored in DashboardUploadChunkEntity children, since a whole report may
+ * be larger than the size limit of a single entity. The keys of the runs written while processing
+ * the upload are journaled before they are written, so that a retry can first remove what a
+ * failed attempt left behind.
+ */
+@Cache
+@Entity(name = "DashboardUpload")
+@NoArgsConstructor
+public class DashboardUploadEntity implements DashboardEntity {
+
+    /** The processing states of a queued upload. */
+    public enum Status {
+        QUEUED,
+        PROCESSING,
+        SUCCEEDED,
+        FAILED
+    }
+
+    /** The id of the upload */
+    @Id @Getter Long id;
+
+    /** Maximum number of entities in a single delete. */
+    private static final int MAX_KEYS_PER_DELETE = 500;
+
+    /** The current processing state */
+    @Index @Getter @Setter Status status;
+
+    /** The number of payload chunks stored for the upload */
+    @Getter int chunkCount;
+
+    /** The detail of the last failure, if any */
+    @Getter @Setter String message;
+
+    /** When this upload was accepted */
+    @Getter Date created;
+
+    /** When this record was last updated */
+    @Getter Date updated;
+
+    /** The keys written while processing the upload, each with all of its descendants */
+    List<Key<?>> writtenKeys = new ArrayList<>();
+
+    /**
+     * Create a DashboardUploadEntity in the queued state.
+     *
+     * @param chunkCount The number of payload chunks stored for the upload.
+     */
+    public DashboardUploadEntity(int chunkCount) {
+        this.status = Status.QUEUED;
+        this.chunkCount = chunkCount;
+        this.created = new Date();
+    }
+
+    /** Get the key of this upload. */
+    public Key<DashboardUploadEntity> getOfyKey() {
+        return Key.create(DashboardUploadEntity.class, this.id);
+    }
+
+    /**
+     * Persist the payload of a new upload and the upload record tracking it.
+     *
+     * @param payload The serialized message to process later.
+     * @return The saved upload entity, with its id allocated.
+     */
+    public static DashboardUploadEntity create(byte[] payload) {
+        int chunkCount =
+                Math.max(
+                        1,
+                        (payload.length + DashboardUploadChunkEntity.MAX_CHUNK_SIZE - 1)
+                                / DashboardUploadChunkEntity.MAX_CHUNK_SIZE);
+        DashboardUploadEntity upload = new DashboardUploadEntity(chunkCount);
+        upload.id = ofy().factory().allocateId(DashboardUploadEntity.class).getId();
+
+        List<DashboardUploadChunkEntity> chunks = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            int from = i * DashboardUploadChunkEntity.MAX_CHUNK_SIZE;
+            int to = Math.min(payload.length, from + DashboardUploadChunkEntity.MAX_CHUNK_SIZE);
+            chunks.add(
+                    new DashboardUploadChunkEntity(
+                            upload.getOfyKey(), i, Arrays.copyOfRange(payload, from, to)));
+        }
+        // Chunks are written first so the upload record never points at a partial payload.
+        ofy().save().entities(chunks).now();
+        upload.save();
+        return upload;
+    }
+
+    /** Load and reassemble the stored payload of this upload. */
+    public byte[] loadPayload() {
+        List<Key<DashboardUploadChunkEntity>> chunkKeys = getChunkKeys();
+        Map<Key<DashboardUploadChunkEntity>, DashboardUploadChunkEntity> chunks =
+                ofy().load().keys(chunkKeys);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        for (Key<DashboardUploadChunkEntity> chunkKey : chunkKeys) {
+            DashboardUploadChunkEntity chunk = chunks.get(chunkKey);
+            if (chunk == null) {
+                throw new IllegalStateException("Payload of upload " + this.id + " is missing");
+            }
+            payload.write(chunk.getData(), 0, chunk.getData().length);
+        }
+        return payload.toByteArray();
+    }
+
+    /** Delete the stored payload of this upload once it is no longer needed. */
+    public void deletePayload() {
+        ofy().delete().keys(getChunkKeys()).now();
+    }
+
+    /**
+     * Journal keys which are about to be written while processing this upload.
+     *
+     * @param keys The keys of the entities to write. The descendants of each key are considered
+     *     part of the write as well.
+     */
+    public void journalWrites(List<Key<?>> keys) {
+        this.writtenKeys.addAll(keys);
+        save();
+    }
+
+    /**
+     * Delete everything journaled by an earlier attempt at processing this upload, so the upload
+     * can be processed again without leaving duplicate or orphaned entities behind.
+     */
+    public void deleteJournaledWrites() {
+        deleteWrittenEntities();
+        this.writtenKeys.clear();
+        save();
+    }
+
+    private void deleteWrittenEntities() {
+        for (Key<?> writtenKey : this.writtenKeys) {
+            List<Key<Object>> keys = ofy().load().ancestor(writtenKey).keys().list();
+            for (List<Key<Object>> batch : Lists.partition(keys, MAX_KEYS_PER_DELETE)) {
+                ofy().delete().keys(batch).now();
+            }
+        }
+    }
+
+    /**
+     * Get the uploads which failed and were not updated since the given time, so are no longer
+     * retried.
+     *
+     * @param updatedBefore The time before which the uploads were last updated.
+     * @return The list of failed uploads.
+     */
+    public static List<DashboardUploadEntity> getFailedUploads(Date updatedBefore) {
+        List<DashboardUploadEntity> uploads = new ArrayList<>();
+        for (DashboardUploadEntity upload :
+                ofy().load().type(DashboardUploadEntity.class).filter("status", Status.FAILED)) {
+            if (upload.getUpdated().before(updatedBefore)) {
+                uploads.add(upload);
+            }
+        }
+        return uploads;
+    }
+
+    /**
+     * Delete this upload together with its payload and whatever a failed attempt at processing it
+     * wrote.
+     */
+    public void delete() {
+        deleteWrittenEntities();
+        deletePayload();
+        ofy().delete().entity(this).now();
+    }
+
+    private List<Key<DashboardUploadChunkEntity>> getChunkKeys() {
+        List<Key<DashboardUploadChunkEntity>> chunkKeys = new ArrayList<>();
+        for (long i = 0; i < this.chunkCount; i++) {
+            chunkKeys.add(DashboardUploadChunkEntity.getKey(getOfyKey(), i));
+        }
+        return chunkKeys;
+    }
+
+    /** Saving function for the instance of this class */
+    @Override
+    public Key<DashboardUploadEntity> save() {
+        this.updated = new Date();
+        return ofy().save().entity(this).now();
+    }
+}
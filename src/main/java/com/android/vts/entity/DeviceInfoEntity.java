@@ -27,8 +27,10 @@ import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Parent;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -310,6 +312,23 @@ public class DeviceInfoEntity implements DashboardEntity {
                 this.buildId, this.abiBitness, this.abiName);
     }
 
+    /**
+     * Get the distinct non-empty values of an attribute over a collection of devices.
+     *
+     * @param devices The devices to read the attribute of.
+     * @param attribute The getter of the attribute.
+     * @return The sorted list of distinct values.
+     */
+    public static List<String> getDistinct(
+            Collection<DeviceInfoEntity> devices, Function<DeviceInfoEntity, String> attribute) {
+        return devices.stream()
+                .map(attribute)
+                .filter(value -> Objects.nonNull(value) && !value.isEmpty())
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
     /**
      * Create a string representation of the device build information.
      * @return A String fingerprint of the format: branch/buildFlavor (build ID)
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.entity;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.OnLoad;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entity holding the sorted list of distinct values of a property, such as every branch name,
+ * kept up to date as reports are ingested.
+ *
+ * <p>Values are served from an in-process copy, then from the Objectify memcache tier, and only
+ * rebuilt from a full scan when the dictionary is missing or stale.
+ */
+@Cache
+@Entity(name = "Dictionary")
+@NoArgsConstructor
+public class DictionaryEntity implements DashboardEntity {
+    protected static final Logger logger = Logger.getLogger(DictionaryEntity.class.getName());
+
+    /** The name of the dictionary of branch names */
+    public static final String BRANCHES = "branches";
+
+    /** The name of the dictionary of device build flavors */
+    public static final String BUILD_FLAVORS = "buildFlavors";
+
+    /** How long the in-process copy is used before it is read again. */
+    private static final long LOCAL_EXPIRATION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /** How long a dictionary is trusted before it is rebuilt from a full scan. */
+    private static final long REBUILD_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final Map<String, DictionaryEntity> localDictionaries =
+            new ConcurrentHashMap<>();
+
+    /** The name of the dictionary */
+    @Id @Getter String name;
+
+    /** The sorted distinct values */
+    @Getter List<String> values;
+
+    /** When the dictionary was rebuilt from a full scan */
+    @Getter Date built;
+
+    /** When the dictionary was last read or written by this instance, not stored */
+    @Ignore private long loaded;
+
+    private DictionaryEntity(String name, Collection<String> values) {
+        this.name = name;
+        this.values = new ArrayList<>(new TreeSet<>(values));
+        this.built = new Date();
+    }
+
+    /** An empty list isn't stored, so it is restored on load. */
+    @OnLoad
+    private void onLoad() {
+        if (Objects.isNull(this.values)) {
+            this.values = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Get the values of a dictionary.
+     *
+     * @param name The name of the dictionary.
+     * @param scan Loads every value with a full scan, used when the dictionary needs rebuilding.
+     * @return The sorted list of distinct values.
+     */
+    public static List<String> getValues(String name, Supplier<List<String>> scan) {
+        DictionaryEntity dictionary = localDictionaries.get(name);
+        long now = System.currentTimeMillis();
+        if (Objects.isNull(dictionary) || now - dictionary.loaded > LOCAL_EXPIRATION_MILLIS) {
+            dictionary = ofy().load().type(DictionaryEntity.class).id(name).now();
+            if (Objects.isNull(dictionary)
+                    || now - dictionary.built.getTime() > REBUILD_INTERVAL_MILLIS) {
+                logger.log(Level.INFO, "Rebuilding dictionary " + name);
+                dictionary = new DictionaryEntity(name, scan.get());
+                dictionary.save();
+            }
+            dictionary.loaded = now;
+            localDictionaries.put(name, dictionary);
+        }
+        return Collections.unmodifiableList(dictionary.values);
+    }
+
+    /**
+     * Add values to a dictionary, if they aren't in it already.
+     *
+     * <p>A dictionary which doesn't exist yet is left alone, since it is built from a full scan
+     * when it is first read.
+     *
+     * @param name The name of the dictionary.
+     * @param values The values seen by ingestion.
+     */
+    public static void addValues(String name, Collection<String> values) {
+        DictionaryEntity local = localDictionaries.get(name);
+        if (values.isEmpty()
+                || (Objects.nonNull(local) && local.values.containsAll(values))) {
+            return;
+        }
+        DictionaryEntity updated =
+                ofy().transact(
+                                () -> {
+                                    DictionaryEntity dictionary =
+                                            ofy().load()
+                                                    .type(DictionaryEntity.class)
+                                                    .id(name)
+                                                    .now();
+                                    if (Objects.isNull(dictionary)
+                                            || dictionary.values.containsAll(values)) {
+                                        return dictionary;
+                                    }
+                                    TreeSet<String> merged = new TreeSet<>(dictionary.values);
+                                    merged.addAll(values);
+                                    dictionary.values = new ArrayList<>(merged);
+                                    dictionary.save();
+                                    return dictionary;
+                                });
+        if (Objects.nonNull(updated)) {
+            updated.loaded = System.currentTimeMillis();
+            localDictionaries.put(name, updated);
+        }
+    }
+
+    /** Saving function for the instance of this class */
+    @Override
+    public Key<DictionaryEntity> save() {
+        return ofy().save().entity(this).now();
+    }
+}
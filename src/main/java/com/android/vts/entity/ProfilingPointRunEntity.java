@@ -19,16 +19,24 @@ package com.android.vts.entity;
 import com.android.vts.proto.VtsReportMessage.ProfilingReportMessage;
 import com.android.vts.proto.VtsReportMessage.VtsProfilingRegressionMode;
 import com.android.vts.proto.VtsReportMessage.VtsProfilingType;
+import com.android.vts.util.PackedEncoding;
+import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.ShortBlob;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.IgnoreSave;
 import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.OnSave;
 import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.condition.IfNull;
+import com.googlecode.objectify.condition.PojoIf;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -57,10 +65,18 @@ public class ProfilingPointRunEntity implements DashboardEntity {
     public static final String X_LABEL = "xLabel";
     public static final String Y_LABEL = "yLabel";
     public static final String OPTIONS = "options";
+    public static final String PACKED_LABELS = "packedLabels";
+    public static final String PACKED_VALUES = "packedValues";
 
     /** This value will set the limit size of values array field */
     public static final int VALUE_SIZE_LIMIT = 50000;
 
+    /**
+     * Whether labels and values are saved in the packed encoding instead of list properties. Set
+     * by each upload servlet's init and read by request threads.
+     */
+    private static volatile boolean packedEncodingEnabled = false;
+
     @Ignore
     private Key key;
 
@@ -79,11 +95,21 @@ public class ProfilingPointRunEntity implements DashboardEntity {
     private int regressionMode;
 
     /** list of label name  */
+    @IgnoreSave(IfPacked.class)
     private List<String> labels;
 
     /** list of values  */
+    @IgnoreSave(IfPacked.class)
     private List<Long> values;
 
+    /** labels in the packed encoding, saved in place of labels when enabled */
+    @IgnoreSave(IfNull.class)
+    private byte[] packedLabels;
+
+    /** values in the packed encoding, saved in place of values when enabled */
+    @IgnoreSave(IfNull.class)
+    private byte[] packedValues;
+
     /** X axis label name */
     private String xLabel;
 
@@ -167,6 +193,49 @@ public class ProfilingPointRunEntity implements DashboardEntity {
         this.updated = new Date();
     }
 
+    /** Condition matching runs whose labels and values are saved in the packed encoding. */
+    public static class IfPacked extends PojoIf<ProfilingPointRunEntity> {
+        @Override
+        public boolean matchesPojo(ProfilingPointRunEntity pojo) {
+            return pojo.packedValues != null;
+        }
+    }
+
+    /**
+     * Choose whether runs are saved with their labels and values in the packed encoding. Runs
+     * saved in either encoding can always be loaded.
+     *
+     * @param enabled True to save labels and values as packed blobs.
+     */
+    public static void setPackedEncodingEnabled(boolean enabled) {
+        packedEncodingEnabled = enabled;
+    }
+
+    /** Pack the labels and values before saving, if the packed encoding is enabled. */
+    @OnSave
+    public void onSave() {
+        if (packedEncodingEnabled && this.values != null) {
+            this.packedValues = PackedEncoding.encodeLongs(this.values);
+            this.packedLabels =
+                    this.labels == null ? null : PackedEncoding.encodeStrings(this.labels);
+        } else {
+            this.packedValues = null;
+            this.packedLabels = null;
+        }
+    }
+
+    /** Unpack the labels and values of runs saved in the packed encoding. */
+    @OnLoad
+    public void onLoad() {
+        if (this.packedValues != null) {
+            this.values = PackedEncoding.decodeLongs(this.packedValues);
+            this.labels =
+                    this.packedLabels == null
+                            ? null
+                            : PackedEncoding.decodeStrings(this.packedLabels);
+        }
+    }
+
     /**
      * Get VtsProfilingType from int value.
      *
@@ -260,7 +329,7 @@ public class ProfilingPointRunEntity implements DashboardEntity {
                 || e.getKey().getName() == null
                 || !e.hasProperty(TYPE)
                 || !e.hasProperty(REGRESSION_MODE)
-                || !e.hasProperty(VALUES)
+                || !(e.hasProperty(VALUES) || e.hasProperty(PACKED_VALUES))
                 || !e.hasProperty(X_LABEL)
                 || !e.hasProperty(Y_LABEL)) {
             log.error("Missing profiling point attributes in entity: " + e.toString());
@@ -271,12 +340,20 @@ public class ProfilingPointRunEntity implements DashboardEntity {
             String name = e.getKey().getName();
             int type = (int) (long) e.getProperty(TYPE);
             int regressionMode = (int) (long) e.getProperty(REGRESSION_MODE);
-            List<Long> values = (List<Long>) e.getProperty(VALUES);
             String xLabel = (String) e.getProperty(X_LABEL);
             String yLabel = (String) e.getProperty(Y_LABEL);
+            List<Long> values;
             List<String> labels = null;
-            if (e.hasProperty(LABELS)) {
-                labels = (List<String>) e.getProperty(LABELS);
+            if (e.hasProperty(PACKED_VALUES)) {
+                values = PackedEncoding.decodeLongs(getBytes(e.getProperty(PACKED_VALUES)));
+                if (e.hasProperty(PACKED_LABELS)) {
+                    labels = PackedEncoding.decodeStrings(getBytes(e.getProperty(PACKED_LABELS)));
+                }
+            } else {
+                values = (List<Long>) e.getProperty(VALUES);
+                if (e.hasProperty(LABELS)) {
+                    labels = (List<String>) e.getProperty(LABELS);
+                }
             }
             List<String> options = null;
             if (e.hasProperty(OPTIONS)) {
@@ -284,13 +361,21 @@ public class ProfilingPointRunEntity implements DashboardEntity {
             }
             return new ProfilingPointRunEntity(
                     parentKey, name, type, regressionMode, labels, values, xLabel, yLabel, options);
-        } catch (ClassCastException exception) {
-            // Invalid cast
+        } catch (ClassCastException | IllegalArgumentException exception) {
+            // Invalid cast or packed data
             log.warn("Error parsing profiling point run entity.", exception);
         }
         return null;
     }
 
+    /** Get the bytes of a blob property read through the low-level datastore API. */
+    private static byte[] getBytes(Object property) {
+        if (property instanceof ShortBlob) {
+            return ((ShortBlob) property).getBytes();
+        }
+        return ((Blob) property).getBytes();
+    }
+
     /**
      * Convert a coverage report to a CoverageEntity.
      *
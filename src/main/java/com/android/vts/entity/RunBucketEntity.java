@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.entity;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import com.android.vts.util.DatastoreHelper;
+import com.android.vts.util.FilterUtil;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.Parent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entity listing the start times of the runs of a test or test plan within one day.
+ *
+ * <p>Buckets are updated as runs are ingested and built from a key range scan the first time a
+ * day is read, so a time window is resolved by loading one bucket per day instead of walking
+ * every key in range. Run times are kept sorted, which gives any finer resolution, such as an
+ * hour, with a binary search inside the bucket.
+ */
+@com.googlecode.objectify.annotation.Entity(name = "RunBucket")
+@Cache
+@NoArgsConstructor
+public class RunBucketEntity implements DashboardEntity {
+    protected static final Logger logger = Logger.getLogger(RunBucketEntity.class.getName());
+
+    /** The widest window, in buckets, which is resolved from the index. */
+    public static final int MAX_BUCKETS = 62;
+
+    private static final long BUCKET_MICROS = TimeUnit.DAYS.toMicros(1);
+
+    /** The parent test or test plan */
+    @Parent @Getter private com.googlecode.objectify.Key<?> parent;
+
+    /** The day of the bucket, counted from the epoch */
+    @Id @Getter private Long day;
+
+    /** The sorted start times of the runs in microseconds */
+    @Getter private List<Long> runTimes;
+
+    /** Whether the bucket has been checked against a scan of its day */
+    @Getter private boolean complete;
+
+    private RunBucketEntity(Key parentKey, long day) {
+        this.parent = getParentKey(parentKey);
+        this.day = day;
+        this.runTimes = new ArrayList<>();
+        this.complete = false;
+    }
+
+    /** An empty list isn't stored, so it is restored on load. */
+    @OnLoad
+    private void onLoad() {
+        if (Objects.isNull(this.runTimes)) {
+            this.runTimes = new ArrayList<>();
+        }
+    }
+
+    private static long getDay(long time) {
+        return Math.floorDiv(time, BUCKET_MICROS);
+    }
+
+    /** Convert the App Engine key of a test or test plan to an Objectify key. */
+    private static com.googlecode.objectify.Key<?> getParentKey(Key parentKey) {
+        Class<?> parentClass =
+                parentKey.getKind().equals(TestPlanEntity.KIND)
+                        ? TestPlanEntity.class
+                        : TestEntity.class;
+        return com.googlecode.objectify.Key.create(parentClass, parentKey.getName());
+    }
+
+    private static com.googlecode.objectify.Key<RunBucketEntity> getBucketKey(
+            Key parentKey, long day) {
+        return com.googlecode.objectify.Key.create(
+                getParentKey(parentKey), RunBucketEntity.class, day);
+    }
+
+    /**
+     * Whether a time window is narrow enough to be resolved from the buckets.
+     *
+     * @param startTime The start time of the window in microseconds.
+     * @param endTime The end time of the window in microseconds.
+     * @return True if the window spans at most MAX_BUCKETS days.
+     */
+    public static boolean isIndexed(long startTime, long endTime) {
+        return startTime <= endTime && getDay(endTime) - getDay(startTime) < MAX_BUCKETS;
+    }
+
+    /**
+     * Record a run which has been stored, creating its bucket if needed.
+     *
+     * <p>A bucket created here only holds the new run, so it is left incomplete and the rest of
+     * its day is scanned the first time it is read. The bucket is in the entity group of the
+     * test or test plan, so it is recorded in the same transaction as the run itself, and a
+     * complete bucket never misses a stored run.
+     *
+     * @param parentKey The key of the test or test plan.
+     * @param runTime The start time of the run in microseconds.
+     */
+    public static void addRun(Key parentKey, long runTime) {
+        long day = getDay(runTime);
+        ofy().transact(
+                        () -> {
+                            RunBucketEntity bucket =
+                                    ofy().load().key(getBucketKey(parentKey, day)).now();
+                            if (Objects.isNull(bucket)) {
+                                bucket = new RunBucketEntity(parentKey, day);
+                            } else if (bucket.runTimes.contains(runTime)) {
+                                return;
+                            }
+                            TreeSet<Long> merged = new TreeSet<>(bucket.runTimes);
+                            merged.add(runTime);
+                            bucket.runTimes = new ArrayList<>(merged);
+                            bucket.save();
+                        });
+    }
+
+    /**
+     * Get the keys of the runs within a time window, in ascending order.
+     *
+     * @param parentKey The key of the test or test plan.
+     * @param runKind The kind of the runs, TestRun or TestPlanRun.
+     * @param startTime The start time of the window in microseconds, inclusive.
+     * @param endTime The end time of the window in microseconds, inclusive.
+     * @return The list of run keys.
+     */
+    public static List<Key> getRunKeys(
+            Key parentKey, String runKind, long startTime, long endTime) {
+        List<Key> runKeys = new ArrayList<>();
+        for (RunBucketEntity bucket : getBuckets(parentKey, runKind, startTime, endTime)) {
+            for (long runTime : bucket.getRunTimes(startTime, endTime)) {
+                runKeys.add(KeyFactory.createKey(parentKey, runKind, runTime));
+            }
+        }
+        return runKeys;
+    }
+
+    /**
+     * Count the runs within a time window, to size a query before running it.
+     *
+     * @param parentKey The key of the test or test plan.
+     * @param runKind The kind of the runs, TestRun or TestPlanRun.
+     * @param startTime The start time of the window in microseconds, inclusive.
+     * @param endTime The end time of the window in microseconds, inclusive.
+     * @return The number of runs in the window.
+     */
+    public static long countRuns(Key parentKey, String runKind, long startTime, long endTime) {
+        long count = 0;
+        for (RunBucketEntity bucket : getBuckets(parentKey, runKind, startTime, endTime)) {
+            count += bucket.getRunTimes(startTime, endTime).size();
+        }
+        return count;
+    }
+
+    /** Get the run times of the bucket within a window, using the sort order of the list. */
+    private List<Long> getRunTimes(long startTime, long endTime) {
+        int from = Collections.binarySearch(this.runTimes, startTime);
+        int to = Collections.binarySearch(this.runTimes, endTime);
+        from = from < 0 ? -from - 1 : from;
+        to = to < 0 ? -to - 1 : to + 1;
+        return from < to ? this.runTimes.subList(from, to) : Collections.emptyList();
+    }
+
+    /** Load the buckets covering a window, building any which are missing or incomplete. */
+    private static List<RunBucketEntity> getBuckets(
+            Key parentKey, String runKind, long startTime, long endTime) {
+        List<com.googlecode.objectify.Key<RunBucketEntity>> bucketKeys = new ArrayList<>();
+        for (long day = getDay(startTime); day <= getDay(endTime); day++) {
+            bucketKeys.add(getBucketKey(parentKey, day));
+        }
+        Map<com.googlecode.objectify.Key<RunBucketEntity>, RunBucketEntity> loaded =
+                ofy().load().keys(bucketKeys);
+
+        List<RunBucketEntity> buckets = new ArrayList<>();
+        for (com.googlecode.objectify.Key<RunBucketEntity> bucketKey : bucketKeys) {
+            RunBucketEntity bucket = loaded.get(bucketKey);
+            if (Objects.isNull(bucket) || !bucket.complete) {
+                bucket = build(parentKey, runKind, bucketKey.getId());
+            }
+            buckets.add(bucket);
+        }
+        return buckets;
+    }
+
+    /**
+     * Build a bucket from a key range scan of its day.
+     *
+     * <p>The scan is merged with whatever the bucket holds when the transaction runs, so a run
+     * recorded by ingestion while the scan was in progress isn't lost.
+     */
+    private static RunBucketEntity build(Key parentKey, String runKind, long day) {
+        logger.log(Level.INFO, "Building run bucket " + day + " of " + parentKey);
+        long dayStart = day * BUCKET_MICROS;
+        Query runQuery =
+                new Query(runKind)
+                        .setAncestor(parentKey)
+                        .setFilter(
+                                FilterUtil.getTimeFilter(
+                                        parentKey,
+                                        runKind,
+                                        dayStart,
+                                        dayStart + BUCKET_MICROS - 1))
+                        .setKeysOnly();
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        TreeSet<Long> scanned = new TreeSet<>();
+        for (Entity run :
+                datastore.prepare(runQuery).asIterable(DatastoreHelper.getLargeBatchOptions())) {
+            scanned.add(run.getKey().getId());
+        }
+        return ofy().transact(
+                        () -> {
+                            RunBucketEntity bucket =
+                                    ofy().load().key(getBucketKey(parentKey, day)).now();
+                            if (Objects.isNull(bucket)) {
+                                bucket = new RunBucketEntity(parentKey, day);
+                            } else if (bucket.complete) {
+                                return bucket;
+                            }
+                            TreeSet<Long> merged = new TreeSet<>(scanned);
+                            merged.addAll(bucket.runTimes);
+                            bucket.runTimes = new ArrayList<>(merged);
+                            bucket.complete = true;
+                            bucket.save();
+                            return bucket;
+                        });
+    }
+
+    /** Saving function for the instance of this class */
+    @Override
+    public com.googlecode.objectify.Key<RunBucketEntity> save() {
+        return ofy().save().entity(this).now();
+    }
+}
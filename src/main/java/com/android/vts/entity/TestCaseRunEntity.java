@@ -16,12 +16,20 @@
 
 package com.android.vts.entity;
 
+import com.android.vts.util.PackedEncoding;
+import com.google.appengine.api.datastore.Blob;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.ShortBlob;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
-import com.googlecode.objectify.annotation.OnLoad;
+import com.googlecode.objectify.annotation.IgnoreSave;
+import com.googlecode.objectify.annotation.OnSave;
+import com.googlecode.objectify.condition.IfNull;
+import com.googlecode.objectify.condition.PojoIf;
+import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 import lombok.Data;
@@ -44,19 +52,42 @@ public class TestCaseRunEntity implements DashboardEntity {
     public static final String TEST_CASE_NAMES = "testCaseNames";
     public static final String RESULTS = "results";
     public static final String SYSTRACE_URL = "systraceUrl";
+    public static final String PACKED_TEST_CASE_NAMES = "packedTestCaseNames";
+    public static final String PACKED_RESULTS = "packedResults";
 
     // Maximum number of test cases in the entity.
     private static final int SIZE_LIMIT = 500;
 
+    /**
+     * Whether test cases are saved in the packed encoding instead of list properties. Set by each
+     * upload servlet's init and read by request threads.
+     */
+    private static volatile boolean packedEncodingEnabled = false;
+
     @Id
     private Long id;
 
+    @IgnoreSave(IfPacked.class)
     private List<Integer> results;
 
+    @IgnoreSave(IfPacked.class)
     private List<String> testCaseNames;
 
+    /** Test case results, one byte each, saved in place of results when packed */
+    @IgnoreSave(IfNull.class)
+    private byte[] packedResults;
+
+    /** Test case names in the packed encoding, saved in place of testCaseNames when packed */
+    @IgnoreSave(IfNull.class)
+    private byte[] packedTestCaseNames;
+
+    /** Test case names decoded from packedTestCaseNames on first use */
+    @Ignore
+    private List<String> decodedTestCaseNames;
+
+    /** View of the test cases, created as they are accessed */
     @Ignore
-    public final List<TestCase> testCases;
+    public final List<TestCase> testCases = new TestCaseList();
 
     @Ignore
     private String systraceUrl;
@@ -85,13 +116,37 @@ public class TestCaseRunEntity implements DashboardEntity {
         }
     }
 
+    /** Condition matching test case runs which are saved in the packed encoding. */
+    public static class IfPacked extends PojoIf<TestCaseRunEntity> {
+        @Override
+        public boolean matchesPojo(TestCaseRunEntity pojo) {
+            return pojo.packedResults != null;
+        }
+    }
+
+    /**
+     * List view over the test cases which creates each TestCase when it is requested. It is
+     * serialized along with the enclosing entity, and holds no state of its own.
+     */
+    private class TestCaseList extends AbstractList<TestCase> implements Serializable {
+        @Override
+        public TestCase get(int index) {
+            return new TestCase(
+                    TestCaseRunEntity.this.id, index, getTestCaseName(index), getResult(index));
+        }
+
+        @Override
+        public int size() {
+            return getTestCaseCount();
+        }
+    }
+
     /**
      * Create a TestCaseRunEntity.
      */
     public TestCaseRunEntity() {
         this.results = new ArrayList<>();
         this.testCaseNames = new ArrayList<>();
-        this.testCases = new ArrayList<>();
         this.systraceUrl = null;
     }
 
@@ -103,16 +158,63 @@ public class TestCaseRunEntity implements DashboardEntity {
         this.id = id;
         this.results = new ArrayList<>();
         this.testCaseNames = new ArrayList<>();
-        this.testCases = new ArrayList<>();
         this.systraceUrl = null;
     }
 
+    /**
+     * Choose whether test case runs are saved in the packed encoding. Runs saved in either
+     * encoding can always be loaded.
+     *
+     * @param enabled True to save test case names and results as packed blobs.
+     */
+    public static void setPackedEncodingEnabled(boolean enabled) {
+        packedEncodingEnabled = enabled;
+    }
+
+    /**
+     * Get the number of test cases in the entity.
+     * @return The number of test cases.
+     */
+    public int getTestCaseCount() {
+        if (this.packedResults != null) {
+            return this.packedResults.length;
+        }
+        return Math.min(this.testCaseNames.size(), this.results.size());
+    }
+
+    /**
+     * Get the name of a test case without creating a TestCase.
+     * @param index The offset of the test case.
+     * @return The name of the test case.
+     */
+    public String getTestCaseName(int index) {
+        if (this.packedResults != null) {
+            if (this.decodedTestCaseNames == null) {
+                this.decodedTestCaseNames = PackedEncoding.decodeStrings(this.packedTestCaseNames);
+            }
+            return this.decodedTestCaseNames.get(index);
+        }
+        return this.testCaseNames.get(index);
+    }
+
+    /**
+     * Get the result of a test case without creating a TestCase.
+     * @param index The offset of the test case.
+     * @return The result of the test case.
+     */
+    public int getResult(int index) {
+        if (this.packedResults != null) {
+            return this.packedResults[index];
+        }
+        return this.results.get(index);
+    }
+
     /**
      * Determine if the TestCaseRunEntity is full.
      * @return True if the entity is full, false otherwise.
      */
     public boolean isFull() {
-        return this.testCases.size() >= SIZE_LIMIT;
+        return this.getTestCaseCount() >= SIZE_LIMIT;
     }
 
     /**
@@ -132,19 +234,41 @@ public class TestCaseRunEntity implements DashboardEntity {
     }
 
     /**
-     * Called after the POJO is populated with data through objecitfy library
+     * Called before the POJO is saved through objectify library
      */
-    @OnLoad
-    private void onLoad() {
-        if (testCaseNames.size() == results.size()) {
-            for (int index = 0; index < testCaseNames.size(); index++) {
-                String name = testCaseNames.get(index);
-                int result = results.get(index).intValue();
-                this.testCases.add(new TestCase(this.id, this.testCases.size(), name, result));
+    @OnSave
+    private void onSave() {
+        if (!packedEncodingEnabled) {
+            this.unpack();
+        } else if (this.packedResults == null) {
+            byte[] packed = new byte[this.getTestCaseCount()];
+            for (int index = 0; index < packed.length; index++) {
+                packed[index] = (byte) this.results.get(index).intValue();
             }
+            this.packedTestCaseNames =
+                    PackedEncoding.encodeStrings(this.testCaseNames.subList(0, packed.length));
+            this.packedResults = packed;
         }
     }
 
+    /** Move packed test cases back into the list properties so they can be modified. */
+    private void unpack() {
+        if (this.packedResults == null) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        List<Integer> results = new ArrayList<>();
+        for (int index = 0; index < this.packedResults.length; index++) {
+            names.add(this.getTestCaseName(index));
+            results.add(this.getResult(index));
+        }
+        this.testCaseNames = names;
+        this.results = results;
+        this.packedResults = null;
+        this.packedTestCaseNames = null;
+        this.decodedTestCaseNames = null;
+    }
+
     /**
      * Add a test case to the test case run entity.
      * @param name The name of the test case.
@@ -155,6 +279,7 @@ public class TestCaseRunEntity implements DashboardEntity {
         if (this.isFull()) {
             return false;
         } else {
+            this.unpack();
             this.testCaseNames.add(name);
             this.results.add(result);
             return true;
@@ -206,7 +331,11 @@ public class TestCaseRunEntity implements DashboardEntity {
         }
         try {
             TestCaseRunEntity testCaseRun = new TestCaseRunEntity(e.getKey().getId());
-            if (e.hasProperty(TEST_CASE_NAMES) && e.hasProperty(RESULTS)) {
+            if (e.hasProperty(PACKED_RESULTS) && e.hasProperty(PACKED_TEST_CASE_NAMES)) {
+                // Names are only decoded when they are first read.
+                testCaseRun.packedResults = getBytes(e.getProperty(PACKED_RESULTS));
+                testCaseRun.packedTestCaseNames = getBytes(e.getProperty(PACKED_TEST_CASE_NAMES));
+            } else if (e.hasProperty(TEST_CASE_NAMES) && e.hasProperty(RESULTS)) {
                 List<String> testCaseNames = (List<String>) e.getProperty(TEST_CASE_NAMES);
                 List<Long> results = (List<Long>) e.getProperty(RESULTS);
                 if (testCaseNames.size() == results.size()) {
@@ -230,4 +359,12 @@ public class TestCaseRunEntity implements DashboardEntity {
         }
         return null;
     }
+
+    /** Get the bytes of a blob property read through the low-level datastore API. */
+    private static byte[] getBytes(Object property) {
+        if (property instanceof ShortBlob) {
+            return ((ShortBlob) property).getBytes();
+        }
+        return ((Blob) property).getBytes();
+    }
 }
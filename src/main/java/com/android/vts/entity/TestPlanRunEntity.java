@@ -31,6 +31,7 @@ import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
 import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.Parent;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
@@ -66,6 +67,10 @@ public class TestPlanRunEntity implements DashboardEntity {
     public static final String TOTAL_API_COUNT = "totalApiCount";
     public static final String TOTAL_COVERED_API_COUNT = "coveredApiCount";
     public static final String TEST_RUNS = "testRuns";
+    public static final String DEVICE_BRANCH = "deviceBranch";
+    public static final String DEVICE_PRODUCT = "deviceProduct";
+    public static final String DEVICE_BUILD_FLAVOR = "deviceBuildFlavor";
+    public static final String DEVICE_BUILD_ID = "deviceBuildId";
 
     @Ignore public Key key;
 
@@ -95,6 +100,18 @@ public class TestPlanRunEntity implements DashboardEntity {
 
     private List<com.googlecode.objectify.Key<TestRunEntity>> testRuns;
 
+    /** The branches of the devices the plan was executed on, copied for device filtering */
+    @Index private List<String> deviceBranch;
+
+    /** The products of the devices the plan was executed on */
+    @Index private List<String> deviceProduct;
+
+    /** The build flavors of the devices the plan was executed on */
+    @Index private List<String> deviceBuildFlavor;
+
+    /** The build IDs of the devices the plan was executed on */
+    @Index private List<String> deviceBuildId;
+
     /** When this record was created or updated */
     @Index Date updated;
 
@@ -186,6 +203,20 @@ public class TestPlanRunEntity implements DashboardEntity {
         this.testRuns = testRuns;
     }
 
+    /**
+     * Copy the indexed attributes of the devices the plan was executed on into the plan run, so
+     * that plan runs can be filtered by device without querying the device entities.
+     *
+     * @param devices The devices of the plan run.
+     */
+    public void setDeviceAttributes(Collection<DeviceInfoEntity> devices) {
+        this.deviceBranch = DeviceInfoEntity.getDistinct(devices, DeviceInfoEntity::getBranch);
+        this.deviceProduct = DeviceInfoEntity.getDistinct(devices, DeviceInfoEntity::getProduct);
+        this.deviceBuildFlavor =
+                DeviceInfoEntity.getDistinct(devices, DeviceInfoEntity::getBuildFlavor);
+        this.deviceBuildId = DeviceInfoEntity.getDistinct(devices, DeviceInfoEntity::getBuildId);
+    }
+
     public Entity toEntity() {
         Entity planRun = new Entity(this.key);
         planRun.setProperty(TEST_PLAN_NAME, this.testPlanName);
@@ -36,6 +36,7 @@ import com.googlecode.objectify.annotation.Index;
 import com.googlecode.objectify.annotation.OnLoad;
 import com.googlecode.objectify.annotation.Parent;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -136,6 +137,10 @@ public class TestRunEntity implements DashboardEntity {
     public static final String API_COVERAGE_KEY_LIST = "apiCoverageKeyList";
     public static final String TOTAL_API_COUNT = "totalApiCount";
     public static final String COVERED_API_COUNT = "coveredApiCount";
+    public static final String DEVICE_BRANCH = "deviceBranch";
+    public static final String DEVICE_PRODUCT = "deviceProduct";
+    public static final String DEVICE_BUILD_FLAVOR = "deviceBuildFlavor";
+    public static final String DEVICE_BUILD_ID = "deviceBuildId";
 
     @Ignore private Key key;
 
@@ -173,6 +178,18 @@ public class TestRunEntity implements DashboardEntity {
 
     @Getter @Setter private List<String> logLinks;
 
+    /** The branches of the devices the run was executed on, copied for device filtering */
+    @Index @Getter private List<String> deviceBranch;
+
+    /** The products of the devices the run was executed on */
+    @Index @Getter private List<String> deviceProduct;
+
+    /** The build flavors of the devices the run was executed on */
+    @Index @Getter private List<String> deviceBuildFlavor;
+
+    /** The build IDs of the devices the run was executed on */
+    @Index @Getter private List<String> deviceBuildId;
+
     /**
      * Create a TestRunEntity object describing a test run.
      *
@@ -226,6 +243,20 @@ public class TestRunEntity implements DashboardEntity {
         }
     }
 
+    /**
+     * Copy the indexed attributes of the devices the run was executed on into the run, so that
+     * runs can be filtered by device without querying the device entities.
+     *
+     * @param devices The devices of the run.
+     */
+    public void setDeviceAttributes(Collection<DeviceInfoEntity> devices) {
+        this.deviceBranch = DeviceInfoEntity.getDistinct(devices, DeviceInfoEntity::getBranch);
+        this.deviceProduct = DeviceInfoEntity.getDistinct(devices, DeviceInfoEntity::getProduct);
+        this.deviceBuildFlavor =
+                DeviceInfoEntity.getDistinct(devices, DeviceInfoEntity::getBuildFlavor);
+        this.deviceBuildId = DeviceInfoEntity.getDistinct(devices, DeviceInfoEntity::getBuildId);
+    }
+
     public Entity toEntity() {
         Entity testRunEntity = new Entity(this.key);
         testRunEntity.setProperty(TEST_NAME, this.testName);
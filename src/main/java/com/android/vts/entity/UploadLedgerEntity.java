@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.entity;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import com.google.common.collect.Lists;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Entity recording the digest of a dashboard upload whose data was saved, so that repeated
+ * uploads of the same message can be acknowledged without being saved again.
+ *
+ * <p>A record is claimed before any of the upload's data is written and marked done once all of
+ * it is, so a repeated upload arriving while the first one is still being saved is not saved
+ * twice. A claim which was never completed is given up after a while, in case its writer died.
+ * Records expire after a while, since clients only repeat an upload shortly after it was first
+ * made.
+ */
+@Cache
+@Entity(name = "UploadLedger")
+@NoArgsConstructor
+public class UploadLedgerEntity implements DashboardEntity {
+
+    /** Maximum number of entities in a single delete. */
+    private static final int MAX_KEYS_PER_DELETE = 500;
+
+    /** The time after which a claim which was never completed may be taken over. */
+    private static final long CLAIM_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    /** The results of claiming an upload digest. */
+    public enum ClaimResult {
+        /** The caller claimed the digest and must save the upload. */
+        CLAIMED,
+        /** Another writer is saving the same upload. */
+        IN_PROGRESS,
+        /** The upload was already saved. */
+        DONE
+    }
+
+    /** The hex encoded digest of the uploaded message */
+    @Id @Getter String digest;
+
+    /** The number of test reports in the upload */
+    @Getter int testReportCount;
+
+    /** The number of test plan reports in the upload */
+    @Getter int testPlanReportCount;
+
+    /** The writer which claimed the upload */
+    @Getter String owner;
+
+    /** Whether all of the upload's data was saved */
+    @Getter boolean done;
+
+    /** When the upload was claimed */
+    @Index @Getter Date created;
+
+    /**
+     * Create an UploadLedgerEntity.
+     *
+     * @param digest The hex encoded digest of the uploaded message.
+     * @param owner The writer claiming the upload.
+     * @param testReportCount The number of test reports in the upload.
+     * @param testPlanReportCount The number of test plan reports in the upload.
+     */
+    public UploadLedgerEntity(
+            String digest, String owner, int testReportCount, int testPlanReportCount) {
+        this.digest = digest;
+        this.owner = owner;
+        this.testReportCount = testReportCount;
+        this.testPlanReportCount = testPlanReportCount;
+        this.created = new Date();
+    }
+
+    /**
+     * Check whether an upload with the given digest was already saved.
+     *
+     * @param digest The hex encoded digest of the uploaded message.
+     * @return true if the upload is in the ledger and done.
+     */
+    public static boolean isRecorded(String digest) {
+        UploadLedgerEntity record = ofy().load().type(UploadLedgerEntity.class).id(digest).now();
+        return record != null && record.done;
+    }
+
+    /**
+     * Check whether an upload with the given digest was saved by the given owner.
+     *
+     * @param digest The hex encoded digest of the uploaded message.
+     * @param owner The writer which claimed the upload.
+     * @return true if the upload is in the ledger, done by the owner.
+     */
+    public static boolean isCompletedBy(String digest, String owner) {
+        UploadLedgerEntity record = ofy().load().type(UploadLedgerEntity.class).id(digest).now();
+        return record != null && record.done && owner.equals(record.owner);
+    }
+
+    /**
+     * Claim an upload before saving any of its data.
+     *
+     * <p>The claim succeeds if the digest is not in the ledger, if it was claimed by the same
+     * owner, which is retrying, or if an earlier claim was never completed within the timeout.
+     *
+     * @param digest The hex encoded digest of the uploaded message.
+     * @param owner The writer claiming the upload.
+     * @param testReportCount The number of test reports in the upload.
+     * @param testPlanReportCount The number of test plan reports in the upload.
+     * @return The result of the claim.
+     */
+    public static ClaimResult claim(
+            String digest, String owner, int testReportCount, int testPlanReportCount) {
+        return ofy().transact(
+                        () -> {
+                            UploadLedgerEntity record =
+                                    ofy().load().type(UploadLedgerEntity.class).id(digest).now();
+                            if (record != null) {
+                                if (record.done) {
+                                    return ClaimResult.DONE;
+                                }
+                                long age = System.currentTimeMillis() - record.created.getTime();
+                                if (!owner.equals(record.owner) && age < CLAIM_TIMEOUT_MILLIS) {
+                                    return ClaimResult.IN_PROGRESS;
+                                }
+                            }
+                            new UploadLedgerEntity(
+                                            digest, owner, testReportCount, testPlanReportCount)
+                                    .save();
+                            return ClaimResult.CLAIMED;
+                        });
+    }
+
+    /**
+     * Mark a claimed upload as saved.
+     *
+     * @param digest The hex encoded digest of the uploaded message.
+     */
+    public static void complete(String digest) {
+        ofy().transact(
+                        () -> {
+                            UploadLedgerEntity record =
+                                    ofy().load().type(UploadLedgerEntity.class).id(digest).now();
+                            if (record == null) {
+                                throw new IllegalStateException("Upload not claimed: " + digest);
+                            }
+                            record.done = true;
+                            record.save();
+                        });
+    }
+
+    /**
+     * Give up the claim of an upload which could not be saved, so that a repeated upload is
+     * saved again.
+     *
+     * @param digest The hex encoded digest of the uploaded message.
+     * @param owner The writer which claimed the upload.
+     */
+    public static void release(String digest, String owner) {
+        ofy().transact(
+                        () -> {
+                            UploadLedgerEntity record =
+                                    ofy().load().type(UploadLedgerEntity.class).id(digest).now();
+                            if (record != null && !record.done && owner.equals(record.owner)) {
+                                ofy().delete().entity(record).now();
+                            }
+                        });
+    }
+
+    /**
+     * Delete the records of uploads saved before the given time.
+     *
+     * @param createdBefore The time before which records are deleted.
+     * @return The number of records deleted.
+     */
+    public static int deleteRecordedBefore(Date createdBefore) {
+        List<Key<UploadLedgerEntity>> keys =
+                ofy().load()
+                        .type(UploadLedgerEntity.class)
+                        .filter("created <", createdBefore)
+                        .keys()
+                        .list();
+        for (List<Key<UploadLedgerEntity>> batch : Lists.partition(keys, MAX_KEYS_PER_DELETE)) {
+            ofy().delete().keys(batch).now();
+        }
+        return keys.size();
+    }
+
+    /** Saving function for the instance of this class */
+    @Override
+    public Key<UploadLedgerEntity> save() {
+        return ofy().save().entity(this).now();
+    }
+}
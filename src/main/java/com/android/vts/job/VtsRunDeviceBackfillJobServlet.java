@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.job;
+
+import static com.googlecode.objectify.ObjectifyService.ofy;
+
+import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.TestPlanRunEntity;
+import com.android.vts.entity.TestRunEntity;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.cloud.datastore.Cursor;
+import com.google.cloud.datastore.QueryResults;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Job copying the device attributes of existing test runs and test plan runs onto the runs.
+ *
+ * <p>Runs ingested before the attributes were added don't carry them, so filtering runs by their
+ * device attributes (filter.runDeviceAttributes) may only be enabled once this job has gone
+ * through every run. Each request processes one batch of runs and queues the next batch with the
+ * cursor where it stopped, test runs first and then test plan runs. It is started by hand, and a
+ * run which already carries the attributes is skipped.
+ */
+public class VtsRunDeviceBackfillJobServlet extends BaseJobServlet {
+    protected static final Logger logger =
+            Logger.getLogger(VtsRunDeviceBackfillJobServlet.class.getName());
+
+    public static final String RUN_DEVICE_BACKFILL_JOB_URL = "/cron/vts_run_device_backfill_job";
+    public static final String QUEUE = "runDeviceBackfillQueue";
+
+    /** Parameter selecting the kind of run to process, test runs if it is absent. */
+    private static final String KIND_PARAM = "kind";
+
+    /** Parameter holding the cursor at which to resume. */
+    private static final String CURSOR_PARAM = "cursor";
+
+    /** The number of runs processed by one request. */
+    private static final int BATCH_SIZE = 100;
+
+    /** The maximum number of devices read for one run. */
+    private static final int MAX_DEVICES_PER_RUN = 50;
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String kind = request.getParameter(KIND_PARAM);
+        String cursor = request.getParameter(CURSOR_PARAM);
+        if (kind == null || kind.equals(TestRunEntity.KIND)) {
+            String nextCursor =
+                    backfill(
+                            TestRunEntity.class,
+                            cursor,
+                            TestRunEntity::getOfyKey,
+                            TestRunEntity::getDeviceBranch,
+                            TestRunEntity::setDeviceAttributes);
+            if (nextCursor != null) {
+                addTask(TestRunEntity.KIND, nextCursor);
+            } else {
+                addTask(TestPlanRunEntity.KIND, null);
+            }
+        } else if (kind.equals(TestPlanRunEntity.KIND)) {
+            String nextCursor =
+                    backfill(
+                            TestPlanRunEntity.class,
+                            cursor,
+                            TestPlanRunEntity::getOfyKey,
+                            TestPlanRunEntity::getDeviceBranch,
+                            TestPlanRunEntity::setDeviceAttributes);
+            if (nextCursor != null) {
+                addTask(TestPlanRunEntity.KIND, nextCursor);
+            } else {
+                logger.info("Finished copying device attributes onto runs");
+            }
+        } else {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Copy the device attributes onto one batch of runs of a kind.
+     *
+     * @param type The class of the runs.
+     * @param cursor The cursor at which to resume, or null to start with the first run.
+     * @param getKey Gets the key of a run, the ancestor of its devices.
+     * @param getDeviceBranch Gets the copied branches of a run, null if none were copied.
+     * @param setDeviceAttributes Copies the attributes of a run's devices onto the run.
+     * @return The cursor after the batch, or null if there are no runs left.
+     */
+    private static <T> String backfill(
+            Class<T> type,
+            String cursor,
+            Function<T, Key> getKey,
+            Function<T, List<String>> getDeviceBranch,
+            BiConsumer<T, List<DeviceInfoEntity>> setDeviceAttributes) {
+        Query<T> query = ofy().load().type(type).limit(BATCH_SIZE);
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromUrlSafe(cursor));
+        }
+        QueryResults<T> runs = query.iterator();
+        List<T> updatedRuns = new ArrayList<>();
+        int count = 0;
+        while (runs.hasNext()) {
+            T run = runs.next();
+            ++count;
+            if (getDeviceBranch.apply(run) != null) {
+                continue;
+            }
+            List<DeviceInfoEntity> devices =
+                    ofy().load()
+                            .type(DeviceInfoEntity.class)
+                            .ancestor(getKey.apply(run))
+                            .limit(MAX_DEVICES_PER_RUN)
+                            .list();
+            setDeviceAttributes.accept(run, devices);
+            updatedRuns.add(run);
+        }
+        ofy().save().entities(updatedRuns).now();
+        logger.info(
+                "Copied device attributes onto "
+                        + updatedRuns.size()
+                        + " of "
+                        + count
+                        + " "
+                        + Key.getKind(type)
+                        + " runs");
+        return count < BATCH_SIZE ? null : runs.getCursorAfter().toUrlSafe();
+    }
+
+    private static void addTask(String kind, String cursor) {
+        TaskOptions task =
+                TaskOptions.Builder.withUrl(RUN_DEVICE_BACKFILL_JOB_URL)
+                        .param(KIND_PARAM, kind)
+                        .method(TaskOptions.Method.GET);
+        if (cursor != null) {
+            task.param(CURSOR_PARAM, cursor);
+        }
+        QueueFactory.getQueue(QUEUE).add(task);
+    }
+}
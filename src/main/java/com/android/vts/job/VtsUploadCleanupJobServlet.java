@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.job;
+
+import com.android.vts.entity.DashboardUploadEntity;
+import com.android.vts.entity.UploadLedgerEntity;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Job deleting the stored data of asynchronous uploads which failed and are no longer retried,
+ * and the expired records of the upload ledger.
+ */
+public class VtsUploadCleanupJobServlet extends BaseJobServlet {
+    protected static final Logger logger =
+            Logger.getLogger(VtsUploadCleanupJobServlet.class.getName());
+
+    /**
+     * How long a failed upload is kept after its last attempt. It is longer than the retry window
+     * of the upload queue, so the task of an upload which is deleted has stopped retrying.
+     */
+    private static final long FAILED_UPLOAD_EXPIRY_MILLIS = TimeUnit.DAYS.toMillis(2);
+
+    /** How long a saved upload is remembered in the ledger to acknowledge repeated uploads. */
+    private static final long LEDGER_EXPIRY_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    @Override
+    public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Date updatedBefore = new Date(System.currentTimeMillis() - FAILED_UPLOAD_EXPIRY_MILLIS);
+        for (DashboardUploadEntity upload : DashboardUploadEntity.getFailedUploads(updatedBefore)) {
+            logger.warning(
+                    "Deleting failed upload " + upload.getId() + ": " + upload.getMessage());
+            upload.delete();
+        }
+
+        Date createdBefore = new Date(System.currentTimeMillis() - LEDGER_EXPIRY_MILLIS);
+        int count = UploadLedgerEntity.deleteRecordedBefore(createdBefore);
+        logger.info("Deleted " + count + " expired upload ledger records");
+    }
+}
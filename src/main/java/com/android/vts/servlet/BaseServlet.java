@@ -20,6 +20,7 @@ import com.android.vts.entity.CoverageEntity;
 import com.android.vts.entity.TestSuiteResultEntity;
 import com.android.vts.entity.UserEntity;
 import com.android.vts.util.EmailHelper;
+import com.android.vts.util.FilterUtil;
 import com.android.vts.util.GcsHelper;
 import com.google.appengine.api.users.User;
 import com.google.appengine.api.users.UserService;
@@ -156,6 +157,7 @@ public abstract class BaseServlet extends HttpServlet {
         CoverageEntity.setPropertyValues(systemConfigProp);
         TestSuiteResultEntity.setPropertyValues(systemConfigProp);
         EmailHelper.setPropertyValues(systemConfigProp);
+        FilterUtil.setPropertyValues(systemConfigProp);
         GcsHelper.setGcsProjectId(systemConfigProp.getProperty("gcs.projectID"));
     }
 
@@ -18,8 +18,10 @@ package com.android.vts.servlet;
 
 import com.android.vts.entity.DeviceInfoEntity;
 import com.android.vts.entity.ProfilingPointRunEntity;
+import com.android.vts.entity.RunBucketEntity;
 import com.android.vts.entity.TestEntity;
 import com.android.vts.entity.TestRunEntity;
+import com.android.vts.util.AsyncFetch;
 import com.android.vts.util.DatastoreHelper;
 import com.android.vts.util.FilterUtil;
 import com.android.vts.util.Graph;
@@ -27,13 +29,12 @@ import com.android.vts.util.GraphSerializer;
 import com.android.vts.util.Histogram;
 import com.android.vts.util.LineGraph;
 import com.android.vts.util.PerformanceUtil;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.Filter;
+import com.google.common.base.Supplier;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import java.io.IOException;
@@ -126,7 +127,6 @@ public class ShowGraphServlet extends BaseServlet {
     public void doGetHandler(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
         RequestDispatcher dispatcher = null;
-        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
         String testName = request.getParameter("testName");
         String profilingPointName = request.getParameter("profilingPoint");
         String selectedDevice = request.getParameter("device");
@@ -149,32 +149,8 @@ public class ShowGraphServlet extends BaseServlet {
 
         Map<String, Graph> graphMap = new HashMap<>();
 
-        // Create a query for test runs matching the time window filter
+        // The device query doesn't depend on the runs, so it runs while they are found
         Key parentKey = KeyFactory.createKey(TestEntity.KIND, testName);
-        Filter timeFilter =
-                FilterUtil.getTimeFilter(parentKey, TestRunEntity.KIND, startTime, endTime);
-        Query testRunQuery =
-                new Query(TestRunEntity.KIND)
-                        .setAncestor(parentKey)
-                        .setFilter(timeFilter)
-                        .setKeysOnly();
-
-        // Process the test runs in the query
-        List<Key> gets = new ArrayList<>();
-        for (Entity testRun :
-                datastore
-                        .prepare(testRunQuery)
-                        .asIterable(DatastoreHelper.getLargeBatchOptions())) {
-            gets.add(
-                    KeyFactory.createKey(
-                            testRun.getKey(), ProfilingPointRunEntity.KIND, profilingPointName));
-        }
-        Map<Key, Entity> profilingPoints = datastore.get(gets);
-        Map<Key, Entity> testRunProfiling = new HashMap<>();
-        for (Key key : profilingPoints.keySet()) {
-            testRunProfiling.put(key.getParent(), profilingPoints.get(key));
-        }
-
         Filter deviceFilter =
                 FilterUtil.getDeviceTimeFilter(parentKey, TestRunEntity.KIND, startTime, endTime);
         if (selectedDevice != null) {
@@ -191,15 +167,47 @@ public class ShowGraphServlet extends BaseServlet {
                         .setAncestor(parentKey)
                         .setFilter(deviceFilter)
                         .setKeysOnly();
+        Supplier<List<Entity>> pendingDeviceKeys = AsyncFetch.query(deviceQuery);
+
+        // Find the test runs in the time window, from the run buckets when the window allows
+        List<Key> testRunKeys = new ArrayList<>();
+        if (RunBucketEntity.isIndexed(startTime, endTime)) {
+            testRunKeys =
+                    RunBucketEntity.getRunKeys(parentKey, TestRunEntity.KIND, startTime, endTime);
+        } else {
+            Filter timeFilter =
+                    FilterUtil.getTimeFilter(parentKey, TestRunEntity.KIND, startTime, endTime);
+            Query testRunQuery =
+                    new Query(TestRunEntity.KIND)
+                            .setAncestor(parentKey)
+                            .setFilter(timeFilter)
+                            .setKeysOnly();
+            for (Entity testRun : AsyncFetch.query(testRunQuery).get()) {
+                testRunKeys.add(testRun.getKey());
+            }
+        }
+
+        // Process the test runs in the window
+        List<Key> gets = new ArrayList<>();
+        for (Key testRunKey : testRunKeys) {
+            gets.add(
+                    KeyFactory.createKey(
+                            testRunKey, ProfilingPointRunEntity.KIND, profilingPointName));
+        }
+        Map<Key, Entity> profilingPoints = AsyncFetch.get(gets).get();
+        Map<Key, Entity> testRunProfiling = new HashMap<>();
+        for (Key key : profilingPoints.keySet()) {
+            testRunProfiling.put(key.getParent(), profilingPoints.get(key));
+        }
+
         gets = new ArrayList<>();
-        for (Entity device :
-                datastore.prepare(deviceQuery).asIterable(DatastoreHelper.getLargeBatchOptions())) {
+        for (Entity device : pendingDeviceKeys.get()) {
             if (testRunProfiling.containsKey(device.getParent())) {
                 gets.add(device.getKey());
             }
         }
 
-        Map<Key, Entity> deviceInfos = datastore.get(gets);
+        Map<Key, Entity> deviceInfos = AsyncFetch.get(gets).get();
         Map<Key, List<DeviceInfoEntity>> testRunDevices = new HashMap<>();
         for (Key deviceKey : deviceInfos.keySet()) {
             if (!testRunDevices.containsKey(deviceKey.getParent())) {
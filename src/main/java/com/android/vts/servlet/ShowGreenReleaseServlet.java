@@ -17,6 +17,7 @@
 package com.android.vts.servlet;
 
 import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.RunBucketEntity;
 import com.android.vts.entity.TestPlanEntity;
 import com.android.vts.entity.TestPlanRunEntity;
 import com.android.vts.entity.TestSuiteResultEntity;
@@ -247,6 +248,15 @@ public class ShowGreenReleaseServlet extends BaseServlet {
             }
         }
 
+        // Size the window from the run buckets, so an idle plan skips the per-device queries.
+        long windowRunCount =
+                RunBucketEntity.countRuns(
+                        KeyFactory.createKey(TestPlanEntity.KIND, testPlan),
+                        TestPlanRunEntity.KIND,
+                        startTime,
+                        endTime);
+        logger.log(Level.INFO, "the number of runs in the window => " + windowRunCount);
+
         Map<String, List<DeviceBuildInfo>> baseParamMap = getBasicParamMap(paramInfoMap);
         baseParamMap.forEach(
                 (branchKey, deviceBuildInfoList) -> {
@@ -290,13 +300,15 @@ public class ShowGreenReleaseServlet extends BaseServlet {
                                 Filter userDeviceFilter = FilterUtil.getUserDeviceFilter(paramMap);
 
                                 List<Key> matchingKeyList =
-                                        FilterUtil.getMatchingKeys(
-                                                testPlanKey,
-                                                TestPlanRunEntity.KIND,
-                                                userTestFilters,
-                                                userDeviceFilter,
-                                                dir,
-                                                MAX_RUNS_PER_PAGE);
+                                        windowRunCount == 0
+                                                ? new ArrayList<>()
+                                                : FilterUtil.getMatchingKeys(
+                                                        testPlanKey,
+                                                        TestPlanRunEntity.KIND,
+                                                        userTestFilters,
+                                                        userDeviceFilter,
+                                                        dir,
+                                                        MAX_RUNS_PER_PAGE);
 
                                 logger.log(
                                         Level.INFO,
@@ -23,6 +23,7 @@ import com.android.vts.entity.TestSuiteResultEntity;
 import com.android.vts.util.DatastoreHelper;
 import com.android.vts.util.FilterUtil;
 import com.android.vts.util.Pagination;
+import com.android.vts.util.UserFilter;
 
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
@@ -47,7 +48,6 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -61,9 +61,6 @@ import static com.googlecode.objectify.ObjectifyService.ofy;
 public class ShowPlanReleaseServlet extends BaseServlet {
     private static final int MAX_RUNS_PER_PAGE = 90;
 
-    /** the previous cursor string token list where to start */
-    private static final LinkedHashSet<String> pageCountTokenSet = new LinkedHashSet<>();
-
     @Override
     public PageType getNavParentType() {
         return PageType.RELEASE;
@@ -198,23 +195,26 @@ public class ShowPlanReleaseServlet extends BaseServlet {
         Filter testPlanRunFilter =
                 FilterUtil.getTimeFilter(
                         testPlanKey, TestPlanRunEntity.KIND, startTime, endTime, typeFilter);
-        Map<String, String[]> parameterMap = request.getParameterMap();
-        List<Filter> userTestFilters = FilterUtil.getUserTestFilters(parameterMap);
+        UserFilter userFilter = UserFilter.compile(request.getParameterMap());
+        List<Filter> userTestFilters = userFilter.getTestFilters();
         userTestFilters.add(0, testPlanRunFilter);
-        Filter userDeviceFilter = FilterUtil.getUserDeviceFilter(parameterMap);
+        Filter userDeviceFilter = userFilter.getDeviceFilter();
 
         List<TestPlanRunMetadata> testPlanRuns = new ArrayList<>();
         Map<Key, TestPlanRunMetadata> testPlanMap = new HashMap<>();
         Key minKey = null;
         Key maxKey = null;
-        List<Key> gets =
-                FilterUtil.getMatchingKeys(
+        FilterUtil.MatchingKeyPage keyPage =
+                FilterUtil.getMatchingKeyPage(
                         testPlanKey,
                         TestPlanRunEntity.KIND,
                         userTestFilters,
                         userDeviceFilter,
                         dir,
-                        MAX_RUNS_PER_PAGE);
+                        MAX_RUNS_PER_PAGE,
+                        startTime,
+                        endTime);
+        List<Key> gets = keyPage.getKeys();
         Map<Key, Entity> entityMap = datastore.get(gets);
         logger.log(Level.INFO, "entityMap => " + entityMap);
         for (Key key : gets) {
@@ -280,21 +280,11 @@ public class ShowPlanReleaseServlet extends BaseServlet {
             testPlanRunObjects.add(metadata.toJson());
         }
 
-        FilterUtil.setAttributes(request, parameterMap);
+        userFilter.setAttributes(request);
 
         request.setAttribute("plan", request.getParameter("plan"));
-        request.setAttribute(
-                "hasNewer",
-                new Gson()
-                        .toJson(
-                                DatastoreHelper.hasNewer(
-                                        testPlanKey, TestPlanRunEntity.KIND, endTime)));
-        request.setAttribute(
-                "hasOlder",
-                new Gson()
-                        .toJson(
-                                DatastoreHelper.hasOlder(
-                                        testPlanKey, TestPlanRunEntity.KIND, startTime)));
+        request.setAttribute("hasNewer", new Gson().toJson(keyPage.hasNewer()));
+        request.setAttribute("hasOlder", new Gson().toJson(keyPage.hasOlder()));
         request.setAttribute("planRuns", new Gson().toJson(testPlanRunObjects));
 
         request.setAttribute("unfiltered", unfiltered);
@@ -326,6 +316,7 @@ public class ShowPlanReleaseServlet extends BaseServlet {
                 Objects.isNull(request.getParameter("nextPageToken"))
                         ? ""
                         : request.getParameter("nextPageToken");
+        List<String> pageTokens = Pagination.parsePageTokens(request.getParameter("pageTokens"));
 
         com.googlecode.objectify.cmd.Query<TestSuiteResultEntity> testSuiteResultEntityQuery =
                 ofy().load()
@@ -356,20 +347,26 @@ public class ShowPlanReleaseServlet extends BaseServlet {
         }
         testSuiteResultEntityQuery = testSuiteResultEntityQuery.orderKey(true);
 
-        Pagination<TestSuiteResultEntity> testSuiteResultEntityPagination =
-                new Pagination(
-                        testSuiteResultEntityQuery,
-                        page,
-                        Pagination.DEFAULT_PAGE_SIZE,
-                        nextPageToken,
-                        pageCountTokenSet);
-
-        String nextPageTokenPagination = testSuiteResultEntityPagination.getNextPageCountToken();
-        if (!nextPageTokenPagination.trim().isEmpty()) {
-            this.pageCountTokenSet.add(nextPageTokenPagination);
+        Pagination<TestSuiteResultEntity> testSuiteResultEntityPagination;
+        if (Boolean.parseBoolean(systemConfigProp.getProperty("pagination.keyset"))) {
+            testSuiteResultEntityPagination =
+                    Pagination.ofKeyset(
+                            testSuiteResultEntityQuery,
+                            page,
+                            Pagination.DEFAULT_PAGE_SIZE,
+                            nextPageToken,
+                            pageTokens);
+        } else {
+            testSuiteResultEntityPagination =
+                    new Pagination(
+                            testSuiteResultEntityQuery,
+                            page,
+                            Pagination.DEFAULT_PAGE_SIZE,
+                            nextPageToken,
+                            pageTokens);
         }
 
-        logger.log(Level.INFO, "pageCountTokenSet => " + pageCountTokenSet);
+        logger.log(Level.INFO, "pageTokens => " + pageTokens);
 
         logger.log(Level.INFO, "list => " + testSuiteResultEntityPagination.getList());
         logger.log(
@@ -383,7 +380,10 @@ public class ShowPlanReleaseServlet extends BaseServlet {
                 Level.INFO,
                 "page max range => " + testSuiteResultEntityPagination.getMaxPageRange());
         logger.log(Level.INFO, "page size => " + testSuiteResultEntityPagination.getPageSize());
-        logger.log(Level.INFO, "total count => " + testSuiteResultEntityPagination.getTotalCount());
+        if (!testSuiteResultEntityPagination.isKeyset()) {
+            logger.log(
+                    Level.INFO, "total count => " + testSuiteResultEntityPagination.getTotalCount());
+        }
 
         request.setAttribute("plan", testPlan);
         request.setAttribute("page", page);
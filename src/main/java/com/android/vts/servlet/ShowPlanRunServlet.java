@@ -21,6 +21,7 @@ import com.android.vts.entity.TestPlanEntity;
 import com.android.vts.entity.TestPlanRunEntity;
 import com.android.vts.entity.TestRunEntity;
 import com.android.vts.proto.VtsReportMessage.TestCaseResult;
+import com.android.vts.util.AsyncFetch;
 import com.android.vts.util.TestRunMetadata;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
@@ -29,10 +30,12 @@ import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
+import com.google.common.base.Supplier;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
@@ -45,6 +48,9 @@ import javax.servlet.http.HttpServletResponse;
 public class ShowPlanRunServlet extends BaseServlet {
     private static final String PLAN_RUN_JSP = "WEB-INF/jsp/show_plan_run.jsp";
 
+    /** The maximum number of devices read for each test run of the plan run. */
+    private static final int MAX_DEVICES_PER_RUN = 50;
+
     @Override
     public PageType getNavParentType() {
         return PageType.RELEASE;
@@ -103,7 +109,17 @@ public class ShowPlanRunServlet extends BaseServlet {
         try {
             Entity testPlanRunEntity = datastore.get(planRunKey);
             TestPlanRunEntity testPlanRun = TestPlanRunEntity.fromEntity(testPlanRunEntity);
-            Map<Key, Entity> testRuns = datastore.get(testPlanRun.getOldTestRuns());
+            // The runs and the devices of each run are fetched together
+            Supplier<Map<Key, Entity>> pendingTestRuns =
+                    AsyncFetch.get(testPlanRun.getOldTestRuns());
+            Map<Key, Query> deviceQueries = new HashMap<>();
+            for (Key key : testPlanRun.getOldTestRuns()) {
+                deviceQueries.put(key, new Query(DeviceInfoEntity.KIND).setAncestor(key));
+            }
+            Supplier<Map<Key, List<Entity>>> pendingDevices =
+                    AsyncFetch.query(deviceQueries, MAX_DEVICES_PER_RUN);
+            Map<Key, Entity> testRuns = pendingTestRuns.get();
+            Map<Key, List<Entity>> deviceMap = pendingDevices.get();
             testBuildId = testPlanRun.getTestBuildId();
             passCount = (int) testPlanRun.getPassCount();
             failCount = (int) testPlanRun.getFailCount();
@@ -119,9 +135,8 @@ public class ShowPlanRunServlet extends BaseServlet {
                 if (!testRuns.containsKey(key)) continue;
                 TestRunEntity testRunEntity = TestRunEntity.fromEntity(testRuns.get(key));
                 if (testRunEntity == null) continue;
-                Query deviceInfoQuery = new Query(DeviceInfoEntity.KIND).setAncestor(key);
                 List<DeviceInfoEntity> devices = new ArrayList<>();
-                for (Entity device : datastore.prepare(deviceInfoQuery).asIterable()) {
+                for (Entity device : deviceMap.get(key)) {
                     DeviceInfoEntity deviceEntity = DeviceInfoEntity.fromEntity(device);
                     if (deviceEntity == null) continue;
                     devices.add(deviceEntity);
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.servlet;
+
+import com.android.vts.util.RpcAccounting;
+import com.google.appengine.api.users.UserServiceFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/** Admin page listing the slow requests served by this instance and their datastore calls. */
+public class ShowRpcStatsServlet extends BaseServlet {
+    private static final String RPC_STATS_JSP = "WEB-INF/jsp/show_rpc_stats.jsp";
+
+    @Override
+    public PageType getNavParentType() {
+        return PageType.TOT;
+    }
+
+    @Override
+    public List<Page> getBreadcrumbLinks(HttpServletRequest request) {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public void doGetHandler(HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        if (!UserServiceFactory.getUserService().isUserAdmin()) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+
+        request.setAttribute("slowRequests", RpcAccounting.getSlowRequests());
+        RequestDispatcher dispatcher = request.getRequestDispatcher(RPC_STATS_JSP);
+        try {
+            dispatcher.forward(request, response);
+        } catch (ServletException e) {
+            logger.log(Level.SEVERE, "Servlet Exception caught : ", e);
+        }
+    }
+}
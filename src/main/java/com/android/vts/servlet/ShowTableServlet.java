@@ -21,9 +21,11 @@ import com.android.vts.entity.TestCaseRunEntity;
 import com.android.vts.entity.TestEntity;
 import com.android.vts.entity.TestRunEntity;
 import com.android.vts.proto.VtsReportMessage.TestCaseResult;
+import com.android.vts.util.AsyncFetch;
 import com.android.vts.util.DatastoreHelper;
 import com.android.vts.util.FilterUtil;
 import com.android.vts.util.TestResults;
+import com.android.vts.util.UserFilter;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
@@ -63,27 +65,43 @@ public class ShowTableServlet extends BaseServlet {
         return links;
     }
 
-    public static void processTestRun(TestResults testResults, Entity testRun) {
-        TestRunEntity testRunEntity = TestRunEntity.fromEntity(testRun);
-        if (testRunEntity == null) {
-            return;
-        }
-
-        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    /**
+     * Add test runs to the test results, fetching the test case runs of all of them together.
+     *
+     * <p>The test case run keys of every run are gathered first and fetched in concurrent batch
+     * gets, so the page waits on about one round trip rather than one per run.
+     *
+     * @param testResults The test results to which the runs are added.
+     * @param testRuns The test run entities to add.
+     */
+    public static void processTestRuns(TestResults testResults, List<Entity> testRuns) {
+        List<Entity> runs = new ArrayList<>();
+        List<TestRunEntity> runEntities = new ArrayList<>();
         List<Key> gets = new ArrayList<>();
-        for (long testCaseId : testRunEntity.getTestCaseIds()) {
-            gets.add(KeyFactory.createKey(TestCaseRunEntity.KIND, testCaseId));
+        for (Entity testRun : testRuns) {
+            TestRunEntity testRunEntity = TestRunEntity.fromEntity(testRun);
+            if (testRunEntity == null) {
+                continue;
+            }
+            runs.add(testRun);
+            runEntities.add(testRunEntity);
+            for (long testCaseId : testRunEntity.getTestCaseIds()) {
+                gets.add(KeyFactory.createKey(TestCaseRunEntity.KIND, testCaseId));
+            }
         }
 
-        List<Entity> testCases = new ArrayList<>();
-        Map<Key, Entity> entityMap = datastore.get(gets);
-        for (Key key : gets) {
-            if (entityMap.containsKey(key)) {
-                testCases.add(entityMap.get(key));
+        Map<Key, Entity> entityMap = AsyncFetch.get(gets).get();
+        for (int i = 0; i < runs.size(); i++) {
+            List<Entity> testCases = new ArrayList<>();
+            for (long testCaseId : runEntities.get(i).getTestCaseIds()) {
+                Entity testCase =
+                        entityMap.get(KeyFactory.createKey(TestCaseRunEntity.KIND, testCaseId));
+                if (testCase != null) {
+                    testCases.add(testCase);
+                }
             }
+            testResults.addTestRun(runs.get(i), testCases);
         }
-
-        testResults.addTestRun(testRun, testCases);
     }
 
     @Override
@@ -156,44 +174,48 @@ public class ShowTableServlet extends BaseServlet {
                 FilterUtil.getTimeFilter(
                         testKey, TestRunEntity.KIND, startTime, endTime, typeFilter);
 
-        Map<String, String[]> parameterMap = request.getParameterMap();
-        List<Filter> userTestFilters = FilterUtil.getUserTestFilters(parameterMap);
+        UserFilter userFilter = UserFilter.compile(request.getParameterMap());
+        List<Filter> userTestFilters = userFilter.getTestFilters();
         userTestFilters.add(0, testFilter);
-        Filter userDeviceFilter = FilterUtil.getUserDeviceFilter(parameterMap);
+        Filter userDeviceFilter = userFilter.getDeviceFilter();
 
-        List<Key> gets =
-                FilterUtil.getMatchingKeys(
+        FilterUtil.MatchingKeyPage keyPage =
+                FilterUtil.getMatchingKeyPage(
                         testKey,
                         TestRunEntity.KIND,
                         userTestFilters,
                         userDeviceFilter,
                         dir,
-                        MAX_BUILD_IDS_PER_PAGE);
+                        MAX_BUILD_IDS_PER_PAGE,
+                        startTime,
+                        endTime);
+        List<Key> gets = keyPage.getKeys();
         Map<Key, Entity> entityMap = datastore.get(gets);
+        List<Entity> testRuns = new ArrayList<>();
         for (Key key : gets) {
-            if (!entityMap.containsKey(key)) {
-                continue;
+            if (entityMap.containsKey(key)) {
+                testRuns.add(entityMap.get(key));
             }
-            processTestRun(testResults, entityMap.get(key));
         }
+        processTestRuns(testResults, testRuns);
         testResults.processReport();
 
         if (testResults.profilingPointNames.length == 0) {
             profilingDataAlert = PROFILING_DATA_ALERT;
         }
 
-        FilterUtil.setAttributes(request, parameterMap);
+        userFilter.setAttributes(request);
 
         request.setAttribute("testName", request.getParameter("testName"));
 
         request.setAttribute("error", profilingDataAlert);
 
         // pass values by converting to JSON
-        request.setAttribute("headerRow", new Gson().toJson(testResults.headerRow));
-        request.setAttribute("timeGrid", new Gson().toJson(testResults.timeGrid));
-        request.setAttribute("durationGrid", new Gson().toJson(testResults.durationGrid));
-        request.setAttribute("summaryGrid", new Gson().toJson(testResults.summaryGrid));
-        request.setAttribute("resultsGrid", new Gson().toJson(testResults.resultsGrid));
+        request.setAttribute("headerRow", testResults.getHeaderRowJson());
+        request.setAttribute("timeGrid", testResults.getTimeGridJson());
+        request.setAttribute("durationGrid", testResults.getDurationGridJson());
+        request.setAttribute("summaryGrid", testResults.getSummaryGridJson());
+        request.setAttribute("resultsRows", testResults.getResultsRows());
         request.setAttribute("profilingPointNames", testResults.profilingPointNames);
         request.setAttribute("resultNames", resultNames);
         request.setAttribute("resultNamesJson", new Gson().toJson(resultNames));
@@ -205,18 +227,8 @@ public class ShowTableServlet extends BaseServlet {
         request.setAttribute("topBuildId", testResults.totBuildId);
         request.setAttribute("startTime", new Gson().toJson(testResults.startTime));
         request.setAttribute("endTime", new Gson().toJson(testResults.endTime));
-        request.setAttribute(
-                "hasNewer",
-                new Gson()
-                        .toJson(
-                                DatastoreHelper.hasNewer(
-                                        testKey, TestRunEntity.KIND, testResults.endTime)));
-        request.setAttribute(
-                "hasOlder",
-                new Gson()
-                        .toJson(
-                                DatastoreHelper.hasOlder(
-                                        testKey, TestRunEntity.KIND, testResults.startTime)));
+        request.setAttribute("hasNewer", new Gson().toJson(keyPage.hasNewer()));
+        request.setAttribute("hasOlder", new Gson().toJson(keyPage.hasOlder()));
         request.setAttribute("unfiltered", unfiltered);
         request.setAttribute("showPresubmit", showPresubmit);
         request.setAttribute("showPostsubmit", showPostsubmit);
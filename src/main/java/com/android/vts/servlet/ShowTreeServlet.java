@@ -22,21 +22,24 @@ import com.android.vts.entity.TestCaseRunEntity;
 import com.android.vts.entity.TestEntity;
 import com.android.vts.entity.TestRunEntity;
 import com.android.vts.proto.VtsReportMessage.TestCaseResult;
+import com.android.vts.util.AsyncFetch;
 import com.android.vts.util.DatastoreHelper;
 import com.android.vts.util.FilterUtil;
+import com.android.vts.util.MatchingKeyCache;
+import com.android.vts.util.PageModelCache;
 import com.android.vts.util.TestRunDetails;
 import com.android.vts.util.TestRunMetadata;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.android.vts.util.UserFilter;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.common.base.Supplier;
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -62,6 +65,20 @@ public class ShowTreeServlet extends BaseServlet {
   private static final int MAX_RESULT_COUNT = 60;
   private static final int MAX_PREFETCH_COUNT = 10;
 
+  /** The built model of a page of the tree, with its JSON values already serialized. */
+  private static class TreeModel implements Serializable {
+    // message to display if profiling point data is not available
+    String profilingDataAlert = "";
+    ArrayList<String> profilingPointNames = new ArrayList<>();
+    ArrayList<String> testRuns = new ArrayList<>(); // JSON object of each run, newest first
+    String topBuildResultCounts;
+    String topBuild = "";
+    String startTime;
+    String endTime;
+    String hasNewer;
+    String hasOlder;
+  }
+
   @Override
   public PageType getNavParentType() {
     return PageType.TOT;
@@ -82,21 +99,37 @@ public class ShowTreeServlet extends BaseServlet {
    * @return The TestRunDetails object for the provided test run.
    */
   public static TestRunDetails processTestDetails(TestRunMetadata metadata) {
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    TestRunDetails details = new TestRunDetails();
+    return processTestDetails(fetchTestCaseRuns(metadata).get());
+  }
+
+  /**
+   * Start fetching the test case runs of a test run.
+   *
+   * @param metadata The metadata for the test run whose test case runs will be fetched.
+   * @return The pending map from key to test case run entity.
+   */
+  private static Supplier<Map<Key, Entity>> fetchTestCaseRuns(TestRunMetadata metadata) {
     List<Key> gets = new ArrayList<>();
-        for (long testCaseId : metadata.testRun.getTestCaseIds()) {
-            gets.add(KeyFactory.createKey(TestCaseRunEntity.KIND, testCaseId));
-        }
-    Map<Key, Entity> entityMap = datastore.get(gets);
-    for (int i = 0; i < 1; i++) {
-      for (Key key : entityMap.keySet()) {
-        TestCaseRunEntity testCaseRun = TestCaseRunEntity.fromEntity(entityMap.get(key));
-        if (testCaseRun == null) {
-          continue;
-        }
-        details.addTestCase(testCaseRun);
+    for (long testCaseId : metadata.testRun.getTestCaseIds()) {
+      gets.add(KeyFactory.createKey(TestCaseRunEntity.KIND, testCaseId));
+    }
+    return AsyncFetch.get(gets);
+  }
+
+  /**
+   * Get the test run details from the fetched test case runs of a test run.
+   *
+   * @param entityMap The map from key to test case run entity.
+   * @return The TestRunDetails object for the test run.
+   */
+  private static TestRunDetails processTestDetails(Map<Key, Entity> entityMap) {
+    TestRunDetails details = new TestRunDetails();
+    for (Key key : entityMap.keySet()) {
+      TestCaseRunEntity testCaseRun = TestCaseRunEntity.fromEntity(entityMap.get(key));
+      if (testCaseRun == null) {
+        continue;
       }
+      details.addTestCase(testCaseRun);
     }
     return details;
   }
@@ -109,12 +142,8 @@ public class ShowTreeServlet extends BaseServlet {
     boolean showPostsubmit = request.getParameter("showPostsubmit") != null;
     Long startTime = null; // time in microseconds
     Long endTime = null; // time in microseconds
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     RequestDispatcher dispatcher = null;
 
-    // message to display if profiling point data is not available
-    String profilingDataAlert = "";
-
     if (request.getParameter("testName") == null) {
       request.setAttribute("testName", TABLE_NAME_ERROR);
       return;
@@ -157,6 +186,94 @@ public class ShowTreeServlet extends BaseServlet {
       resultNames.add(r.name());
     }
 
+    // The model only depends on the stored runs of the test, so it is cached until a new run is
+    // ingested for the test.
+    UserFilter userFilter = UserFilter.compile(request.getParameterMap());
+    Key testKey = KeyFactory.createKey(TestEntity.KIND, testName);
+    Long generation = MatchingKeyCache.getGeneration(testKey);
+    String signature =
+        "tree|"
+            + testName
+            + "|"
+            + userFilter
+            + "|"
+            + unfiltered
+            + "|"
+            + showPresubmit
+            + "|"
+            + showPostsubmit
+            + "|"
+            + startTime
+            + "|"
+            + endTime;
+    TreeModel model = null;
+    if (generation != null) {
+      model = (TreeModel) PageModelCache.get(generation, signature);
+    }
+    if (model == null) {
+      model =
+          buildModel(
+              testName, userFilter, unfiltered, showPresubmit, showPostsubmit, startTime, endTime);
+      if (generation != null) {
+        PageModelCache.put(generation, signature, model);
+      }
+    }
+
+    userFilter.setAttributes(request);
+
+    request.setAttribute("testName", request.getParameter("testName"));
+
+    request.setAttribute("error", model.profilingDataAlert);
+
+    request.setAttribute("profilingPointNames", model.profilingPointNames);
+    request.setAttribute("resultNames", resultNames);
+    request.setAttribute("resultNamesJson", new Gson().toJson(resultNames));
+    request.setAttribute("testRuns", model.testRuns);
+
+    // data for pie chart
+    request.setAttribute("topBuildResultCounts", model.topBuildResultCounts);
+    request.setAttribute("topBuildId", model.topBuild);
+    request.setAttribute("startTime", model.startTime);
+    request.setAttribute("endTime", model.endTime);
+    request.setAttribute("hasNewer", model.hasNewer);
+    request.setAttribute("hasOlder", model.hasOlder);
+    request.setAttribute("unfiltered", unfiltered);
+    request.setAttribute("showPresubmit", showPresubmit);
+    request.setAttribute("showPostsubmit", showPostsubmit);
+
+    request.setAttribute("branches", new Gson().toJson(DatastoreHelper.getAllBranches()));
+    request.setAttribute("devices", new Gson().toJson(DatastoreHelper.getAllBuildFlavors()));
+
+    dispatcher = request.getRequestDispatcher(TABLE_JSP);
+    try {
+      dispatcher.forward(request, response);
+    } catch (ServletException e) {
+      logger.log(Level.SEVERE, "Servlet Exception caught : " + e.toString());
+    }
+  }
+
+  /**
+   * Build the model of a page of the tree, from the runs matching its filters.
+   *
+   * @param testName The name of the test.
+   * @param userFilter The search filters of the page.
+   * @param unfiltered True if no run type filter should be applied.
+   * @param showPresubmit True to display presubmit runs.
+   * @param showPostsubmit True to display postsubmit runs.
+   * @param startTime The start of the window in microseconds, or null if unbounded.
+   * @param endTime The end of the window in microseconds, or null if unbounded.
+   * @return The model of the page.
+   */
+  private static TreeModel buildModel(
+      String testName,
+      UserFilter userFilter,
+      boolean unfiltered,
+      boolean showPresubmit,
+      boolean showPostsubmit,
+      Long startTime,
+      Long endTime) {
+    TreeModel model = new TreeModel();
+
     SortDirection dir = SortDirection.DESCENDING;
     if (startTime != null && endTime == null) {
       dir = SortDirection.ASCENDING;
@@ -168,44 +285,38 @@ public class ShowTreeServlet extends BaseServlet {
         FilterUtil.getTimeFilter(
             testKey, TestRunEntity.KIND, startTime, endTime, typeFilter);
 
-    Map<String, String[]> parameterMap = request.getParameterMap();
-    List<Filter> userTestFilters = FilterUtil.getUserTestFilters(parameterMap);
+    List<Filter> userTestFilters = userFilter.getTestFilters();
     userTestFilters.add(0, testFilter);
-    Filter userDeviceFilter = FilterUtil.getUserDeviceFilter(parameterMap);
+    Filter userDeviceFilter = userFilter.getDeviceFilter();
 
     List<TestRunMetadata> testRunMetadata = new ArrayList<>();
     Map<Key, TestRunMetadata> metadataMap = new HashMap<>();
     Key minKey = null;
     Key maxKey = null;
-    List<Key> gets =
-        FilterUtil.getMatchingKeys(
+    FilterUtil.MatchingKeyPage keyPage =
+        FilterUtil.getMatchingKeyPage(
             testKey,
             TestRunEntity.KIND,
             userTestFilters,
             userDeviceFilter,
             dir,
-            MAX_RESULT_COUNT);
-    Map<Key, Entity> entityMap = datastore.get(gets);
+            MAX_RESULT_COUNT,
+            startTime,
+            endTime);
+    List<Key> gets = keyPage.getKeys();
     for (Key key : gets) {
-      if (!entityMap.containsKey(key)) {
-        continue;
-      }
-      TestRunEntity testRunEntity = TestRunEntity.fromEntity(entityMap.get(key));
-      if (testRunEntity == null) {
-        continue;
-      }
       if (minKey == null || key.compareTo(minKey) < 0) {
         minKey = key;
       }
       if (maxKey == null || key.compareTo(maxKey) > 0) {
         maxKey = key;
       }
-      TestRunMetadata metadata = new TestRunMetadata(testName, testRunEntity);
-      testRunMetadata.add(metadata);
-      metadataMap.put(key, metadata);
     }
 
-    List<String> profilingPointNames = new ArrayList<>();
+    // The runs and the devices and profiling points in their window are fetched together
+    Supplier<Map<Key, Entity>> pendingRuns = AsyncFetch.get(gets);
+    Supplier<List<Entity>> pendingDeviceKeys = null;
+    Supplier<List<Entity>> pendingProfilingPoints = null;
     if (minKey != null && maxKey != null) {
       Filter deviceFilter =
           FilterUtil.getDeviceTimeFilter(
@@ -215,16 +326,48 @@ public class ShowTreeServlet extends BaseServlet {
               .setAncestor(testKey)
               .setFilter(deviceFilter)
               .setKeysOnly();
+      pendingDeviceKeys = AsyncFetch.query(deviceQuery);
+
+      Filter profilingFilter =
+          FilterUtil.getProfilingTimeFilter(
+              testKey, TestRunEntity.KIND, minKey.getId(), maxKey.getId());
+      Query profilingPointQuery =
+          new Query(ProfilingPointRunEntity.KIND)
+              .setAncestor(testKey)
+              .setFilter(profilingFilter)
+              .setKeysOnly();
+      pendingProfilingPoints = AsyncFetch.query(profilingPointQuery);
+    }
+
+    Supplier<Map<Key, Entity>> pendingDevices = null;
+    if (pendingDeviceKeys != null) {
+      Set<Key> runKeys = new HashSet<>(gets);
       List<Key> deviceGets = new ArrayList<>();
-      for (Entity device :
-          datastore
-              .prepare(deviceQuery)
-              .asIterable(DatastoreHelper.getLargeBatchOptions())) {
-        if (metadataMap.containsKey(device.getParent())) {
+      for (Entity device : pendingDeviceKeys.get()) {
+        if (runKeys.contains(device.getParent())) {
           deviceGets.add(device.getKey());
         }
       }
-      Map<Key, Entity> devices = datastore.get(deviceGets);
+      pendingDevices = AsyncFetch.get(deviceGets);
+    }
+
+    Map<Key, Entity> entityMap = pendingRuns.get();
+    for (Key key : gets) {
+      if (!entityMap.containsKey(key)) {
+        continue;
+      }
+      TestRunEntity testRunEntity = TestRunEntity.fromEntity(entityMap.get(key));
+      if (testRunEntity == null) {
+        continue;
+      }
+      TestRunMetadata metadata = new TestRunMetadata(testName, testRunEntity);
+      testRunMetadata.add(metadata);
+      metadataMap.put(key, metadata);
+    }
+
+    List<String> profilingPointNames = model.profilingPointNames;
+    if (pendingDevices != null) {
+      Map<Key, Entity> devices = pendingDevices.get();
       for (Key key : devices.keySet()) {
         if (!metadataMap.containsKey(key.getParent())) {
           continue;
@@ -237,22 +380,13 @@ public class ShowTreeServlet extends BaseServlet {
         metadata.addDevice(device);
       }
 
-      Filter profilingFilter =
-          FilterUtil.getProfilingTimeFilter(
-              testKey, TestRunEntity.KIND, minKey.getId(), maxKey.getId());
-
       Set<String> profilingPoints = new HashSet<>();
-      Query profilingPointQuery =
-          new Query(ProfilingPointRunEntity.KIND)
-              .setAncestor(testKey)
-              .setFilter(profilingFilter)
-              .setKeysOnly();
-      for (Entity e : datastore.prepare(profilingPointQuery).asIterable()) {
+      for (Entity e : pendingProfilingPoints.get()) {
         profilingPoints.add(e.getKey().getName());
       }
 
       if (profilingPoints.size() == 0) {
-        profilingDataAlert = PROFILING_DATA_ALERT;
+        model.profilingDataAlert = PROFILING_DATA_ALERT;
       }
       profilingPointNames.addAll(profilingPoints);
       profilingPointNames.sort(Comparator.naturalOrder());
@@ -261,27 +395,41 @@ public class ShowTreeServlet extends BaseServlet {
     testRunMetadata.sort(
         (t1, t2) ->
             new Long(t2.testRun.getStartTimestamp()).compareTo(t1.testRun.getStartTimestamp()));
-    List<JsonObject> testRunObjects = new ArrayList<>();
 
+    // The test cases of the failing runs to prefetch and of the top run are fetched together
+    List<Supplier<Map<Key, Entity>>> pendingDetails = new ArrayList<>();
     int prefetchCount = 0;
     for (TestRunMetadata metadata : testRunMetadata) {
+      Supplier<Map<Key, Entity>> pending = null;
       if (metadata.testRun.getFailCount() > 0 && prefetchCount < MAX_PREFETCH_COUNT) {
-        // process
-        metadata.addDetails(processTestDetails(metadata));
+        pending = fetchTestCaseRuns(metadata);
         ++prefetchCount;
       }
-      testRunObjects.add(metadata.toJson());
+      pendingDetails.add(pending);
+    }
+    Supplier<Map<Key, Entity>> pendingTopDetails = null;
+    if (testRunMetadata.size() > 0 && pendingDetails.get(0) == null) {
+      pendingTopDetails = fetchTestCaseRuns(testRunMetadata.get(0));
+    }
+
+    Gson gson = new Gson();
+    for (int i = 0; i < testRunMetadata.size(); i++) {
+      TestRunMetadata metadata = testRunMetadata.get(i);
+      if (pendingDetails.get(i) != null) {
+        // process
+        metadata.addDetails(processTestDetails(pendingDetails.get(i).get()));
+      }
+      model.testRuns.add(gson.toJson(metadata.toJson()));
     }
 
     int[] topBuildResultCounts = null;
-    String topBuild = "";
     if (testRunMetadata.size() > 0) {
       TestRunMetadata firstRun = testRunMetadata.get(0);
-      topBuild = firstRun.getDeviceInfo();
+      model.topBuild = firstRun.getDeviceInfo();
       endTime = firstRun.testRun.getStartTimestamp();
       TestRunDetails topDetails = firstRun.getDetails();
       if (topDetails == null) {
-        topDetails = processTestDetails(firstRun);
+        topDetails = processTestDetails(pendingTopDetails.get());
       }
       topBuildResultCounts = topDetails.resultCounts;
 
@@ -289,41 +437,11 @@ public class ShowTreeServlet extends BaseServlet {
       startTime = lastRun.testRun.getStartTimestamp();
     }
 
-    FilterUtil.setAttributes(request, parameterMap);
-
-    request.setAttribute("testName", request.getParameter("testName"));
-
-    request.setAttribute("error", profilingDataAlert);
-
-    request.setAttribute("profilingPointNames", profilingPointNames);
-    request.setAttribute("resultNames", resultNames);
-    request.setAttribute("resultNamesJson", new Gson().toJson(resultNames));
-    request.setAttribute("testRuns", new Gson().toJson(testRunObjects));
-
-    // data for pie chart
-    request.setAttribute("topBuildResultCounts", new Gson().toJson(topBuildResultCounts));
-    request.setAttribute("topBuildId", topBuild);
-    request.setAttribute("startTime", new Gson().toJson(startTime));
-    request.setAttribute("endTime", new Gson().toJson(endTime));
-    request.setAttribute(
-        "hasNewer",
-        new Gson().toJson(DatastoreHelper.hasNewer(testKey, TestRunEntity.KIND, endTime)));
-    request.setAttribute(
-        "hasOlder",
-        new Gson()
-            .toJson(DatastoreHelper.hasOlder(testKey, TestRunEntity.KIND, startTime)));
-    request.setAttribute("unfiltered", unfiltered);
-    request.setAttribute("showPresubmit", showPresubmit);
-    request.setAttribute("showPostsubmit", showPostsubmit);
-
-    request.setAttribute("branches", new Gson().toJson(DatastoreHelper.getAllBranches()));
-    request.setAttribute("devices", new Gson().toJson(DatastoreHelper.getAllBuildFlavors()));
-
-    dispatcher = request.getRequestDispatcher(TABLE_JSP);
-    try {
-      dispatcher.forward(request, response);
-    } catch (ServletException e) {
-      logger.log(Level.SEVERE, "Servlet Exception caught : " + e.toString());
-    }
+    model.topBuildResultCounts = new Gson().toJson(topBuildResultCounts);
+    model.startTime = new Gson().toJson(startTime);
+    model.endTime = new Gson().toJson(endTime);
+    model.hasNewer = new Gson().toJson(keyPage.hasNewer());
+    model.hasOlder = new Gson().toJson(keyPage.hasOlder());
+    return model;
   }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.google.api.services.oauth2.model.Tokeninfo;
+import java.io.IOException;
+
+/** Interface for verifying the OAuth2 access tokens attached to posted messages. */
+public interface AccessTokenVerifier {
+    /**
+     * Verify an access token.
+     *
+     * @param accessToken The access token to verify.
+     * @return The token info describing the client the token was issued to.
+     * @throws IOException if the token can't be verified.
+     */
+    Tokeninfo verify(String accessToken) throws IOException;
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * AsyncFetch, datastore reads which are started when declared and waited on when first needed.
+ *
+ * <p>A page handler starts each of its independent fetches before waiting on any of them, so the
+ * page waits on its longest chain of dependent reads rather than on the sum of all of them. A
+ * failed read is rethrown unchecked when its result is needed, as a blocking read would fail.
+ */
+public class AsyncFetch {
+
+    /** The maximum number of keys in one batch get, the datastore limit. */
+    private static final int MAX_KEYS_PER_GET = 1000;
+
+    /** The maximum number of batch gets of one fetch awaiting results at once. */
+    private static final int MAX_PENDING_GETS = 8;
+
+    /** The maximum number of queries of one fetch awaiting results at once. */
+    private static final int MAX_PENDING_QUERIES = 8;
+
+    private AsyncFetch() {}
+
+    /**
+     * Start getting entities by key.
+     *
+     * <p>The keys are fetched in batch gets of bounded size. Up to MAX_PENDING_GETS of them are
+     * started now, and the rest as earlier ones complete while the result is waited on.
+     *
+     * @param keys The keys of the entities to get.
+     * @return The pending map from key to entity, for the keys which exist.
+     */
+    public static Supplier<Map<Key, Entity>> get(Collection<Key> keys) {
+        AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+        Iterator<List<Key>> batches =
+                Lists.partition(new ArrayList<>(keys), MAX_KEYS_PER_GET).iterator();
+        Deque<Future<Map<Key, Entity>>> pending = new ArrayDeque<>();
+        while (batches.hasNext() && pending.size() < MAX_PENDING_GETS) {
+            pending.add(datastore.get(batches.next()));
+        }
+        return Suppliers.memoize(
+                () -> {
+                    Map<Key, Entity> entityMap = new HashMap<>();
+                    while (!pending.isEmpty()) {
+                        entityMap.putAll(Futures.getUnchecked(pending.poll()));
+                        if (batches.hasNext()) {
+                            pending.add(datastore.get(batches.next()));
+                        }
+                    }
+                    return entityMap;
+                });
+    }
+
+    /**
+     * Start running a query, reading its results in large batches.
+     *
+     * @param query The query to run.
+     * @return The pending list of all entities matching the query.
+     */
+    public static Supplier<List<Entity>> query(Query query) {
+        List<Entity> results =
+                DatastoreServiceFactory.getAsyncDatastoreService()
+                        .prepare(query)
+                        .asList(DatastoreHelper.getLargeBatchOptions());
+        return Suppliers.memoize(
+                () -> {
+                    // Reading the size waits for the remaining batches of the lazy list.
+                    results.size();
+                    return results;
+                });
+    }
+
+    /**
+     * Start running a set of queries, each returning at most a bounded number of entities.
+     *
+     * <p>Up to MAX_PENDING_QUERIES of the queries are started now, and the rest as earlier ones
+     * complete while the result is waited on.
+     *
+     * @param queries The map from an identifying key to the query to run for it.
+     * @param limit The maximum number of entities returned by each query.
+     * @return The pending map from each key to the entities matching its query.
+     */
+    public static <K> Supplier<Map<K, List<Entity>>> query(Map<K, Query> queries, int limit) {
+        AsyncDatastoreService datastore = DatastoreServiceFactory.getAsyncDatastoreService();
+        FetchOptions options = FetchOptions.Builder.withLimit(limit).chunkSize(limit);
+        Iterator<Map.Entry<K, Query>> remaining = new ArrayList<>(queries.entrySet()).iterator();
+        Deque<K> pendingKeys = new ArrayDeque<>();
+        Deque<List<Entity>> pending = new ArrayDeque<>();
+        while (remaining.hasNext() && pending.size() < MAX_PENDING_QUERIES) {
+            Map.Entry<K, Query> entry = remaining.next();
+            pendingKeys.add(entry.getKey());
+            pending.add(datastore.prepare(entry.getValue()).asList(options));
+        }
+        return Suppliers.memoize(
+                () -> {
+                    Map<K, List<Entity>> resultMap = new HashMap<>();
+                    while (!pending.isEmpty()) {
+                        List<Entity> results = pending.poll();
+                        // Reading the size waits for the results of the lazy list.
+                        results.size();
+                        resultMap.put(pendingKeys.poll(), results);
+                        if (remaining.hasNext()) {
+                            Map.Entry<K, Query> entry = remaining.next();
+                            pendingKeys.add(entry.getKey());
+                            pending.add(datastore.prepare(entry.getValue()).asList(options));
+                        }
+                    }
+                    return resultMap;
+                });
+    }
+}
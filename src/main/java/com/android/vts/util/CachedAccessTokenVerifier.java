@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.google.api.services.oauth2.model.Tokeninfo;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * AccessTokenVerifier which remembers verified tokens until they expire.
+ *
+ * <p>Verified tokens are kept in an in-process map backed by memcache, so that only the first
+ * upload with a given token pays for the round trip to the delegate verifier.
+ */
+public class CachedAccessTokenVerifier implements AccessTokenVerifier {
+    private static final Logger logger =
+            Logger.getLogger(CachedAccessTokenVerifier.class.getName());
+
+    private static final String MEMCACHE_KEY_PREFIX = "accessToken:";
+
+    /** The maximum number of tokens held in process before the local map is reset. */
+    private static final int MAX_LOCAL_ENTRIES = 1000;
+
+    /** A verified token and the time at which it stops being valid. */
+    private static class VerifiedToken implements Serializable {
+        private final String issuedTo;
+        private final long expiryMillis;
+
+        private VerifiedToken(String issuedTo, long expiryMillis) {
+            this.issuedTo = issuedTo;
+            this.expiryMillis = expiryMillis;
+        }
+
+        private boolean isExpired(long nowMillis) {
+            return nowMillis >= this.expiryMillis;
+        }
+    }
+
+    private final AccessTokenVerifier delegate;
+    private final MemcacheService memcache;
+    private final Map<String, VerifiedToken> localCache = new ConcurrentHashMap<>();
+
+    /**
+     * Create a CachedAccessTokenVerifier.
+     *
+     * @param delegate The verifier to call when a token isn't cached.
+     * @param memcache The memcache service shared across instances, or null to only cache locally.
+     */
+    public CachedAccessTokenVerifier(AccessTokenVerifier delegate, MemcacheService memcache) {
+        this.delegate = delegate;
+        this.memcache = memcache;
+    }
+
+    @Override
+    public Tokeninfo verify(String accessToken) throws IOException {
+        long now = System.currentTimeMillis();
+        String cacheKey = MEMCACHE_KEY_PREFIX + DigestUtils.sha256Hex(accessToken);
+
+        VerifiedToken token = this.localCache.get(cacheKey);
+        if (Objects.isNull(token) && Objects.nonNull(this.memcache)) {
+            try {
+                token = (VerifiedToken) this.memcache.get(cacheKey);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Error reading verified token from memcache", e);
+            }
+        }
+        if (Objects.nonNull(token) && !token.isExpired(now)) {
+            this.localCache.put(cacheKey, token);
+            return new Tokeninfo()
+                    .setIssuedTo(token.issuedTo)
+                    .setExpiresIn(
+                            (int) TimeUnit.MILLISECONDS.toSeconds(token.expiryMillis - now));
+        }
+        this.localCache.remove(cacheKey);
+
+        Tokeninfo tokenInfo = this.delegate.verify(accessToken);
+        if (Objects.isNull(tokenInfo)
+                || Objects.isNull(tokenInfo.getIssuedTo())
+                || Objects.isNull(tokenInfo.getExpiresIn())
+                || tokenInfo.getExpiresIn() <= 0) {
+            return tokenInfo;
+        }
+
+        token =
+                new VerifiedToken(
+                        tokenInfo.getIssuedTo(),
+                        now + TimeUnit.SECONDS.toMillis(tokenInfo.getExpiresIn()));
+        if (this.localCache.size() >= MAX_LOCAL_ENTRIES) {
+            this.localCache.clear();
+        }
+        this.localCache.put(cacheKey, token);
+        if (Objects.nonNull(this.memcache)) {
+            try {
+                this.memcache.put(
+                        cacheKey, token, Expiration.byDeltaSeconds(tokenInfo.getExpiresIn()));
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Error writing verified token to memcache", e);
+            }
+        }
+        return tokenInfo;
+    }
+}
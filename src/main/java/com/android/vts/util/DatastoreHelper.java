@@ -20,6 +20,7 @@ import com.android.vts.entity.BuildTargetEntity;
 import com.android.vts.entity.CodeCoverageEntity;
 import com.android.vts.entity.CoverageEntity;
 import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.DictionaryEntity;
 import com.android.vts.entity.ProfilingPointRunEntity;
 import com.android.vts.entity.TestCaseRunEntity;
 import com.android.vts.entity.TestEntity;
@@ -143,12 +144,7 @@ public class DatastoreHelper {
    * @return a list of all branches.
    */
   public static List<String> getAllBranches() {
-    Query query = new Query(BranchEntity.KIND).setKeysOnly();
-    List<String> branches = new ArrayList<>();
-    for (Entity e : datastore.prepare(query).asIterable(getLargeBatchOptions())) {
-      branches.add(e.getKey().getName());
-    }
-    return branches;
+    return DictionaryEntity.getValues(DictionaryEntity.BRANCHES, DatastoreHelper::scanBranches);
   }
 
   /**
@@ -157,6 +153,22 @@ public class DatastoreHelper {
    * @return a list of all device build flavors.
    */
   public static List<String> getAllBuildFlavors() {
+    return DictionaryEntity.getValues(
+        DictionaryEntity.BUILD_FLAVORS, DatastoreHelper::scanBuildFlavors);
+  }
+
+  /** Scan every branch entity, used to rebuild the branch dictionary. */
+  private static List<String> scanBranches() {
+    Query query = new Query(BranchEntity.KIND).setKeysOnly();
+    List<String> branches = new ArrayList<>();
+    for (Entity e : datastore.prepare(query).asIterable(getLargeBatchOptions())) {
+      branches.add(e.getKey().getName());
+    }
+    return branches;
+  }
+
+  /** Scan every build target entity, used to rebuild the build flavor dictionary. */
+  private static List<String> scanBuildFlavors() {
     Query query = new Query(BuildTargetEntity.KIND).setKeysOnly();
     List<String> devices = new ArrayList<>();
     for (Entity e : datastore.prepare(query).asIterable(getLargeBatchOptions())) {
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.TestPlanRunEntity;
+import com.android.vts.entity.TestRunEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilter;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FilterPlanner, a helper class for deciding how a set of run and device filters is executed.
+ *
+ * <p>Filters are grouped into as few key-ordered queries as the composite indexes allow, the
+ * remaining filters are ordered by estimated selectivity, and a plan which has no index for the
+ * device filter is marked so that the caller can intersect the results in memory instead.
+ */
+public class FilterPlanner {
+
+    /** Estimated selectivity of each property, from most (lowest) to least selective. */
+    private static final Map<String, Integer> SELECTIVITY = new HashMap<>();
+
+    /**
+     * Ancestor indexes ending in a descending key sort, mirroring datastore-indexes.xml. Every
+     * entry is checked against that file by FilterPlannerTest.
+     */
+    private static final Map<String, List<Set<String>>> DESCENDING_INDEXES = new HashMap<>();
+
+    /** Ancestor indexes ending in an ascending key sort, mirroring datastore-indexes.xml. */
+    private static final Map<String, List<Set<String>>> ASCENDING_INDEXES = new HashMap<>();
+
+    static {
+        SELECTIVITY.put(TestRunEntity.TEST_BUILD_ID, 0);
+        SELECTIVITY.put(DeviceInfoEntity.BUILD_ID, 0);
+        SELECTIVITY.put(TestRunEntity.DEVICE_BUILD_ID, 0);
+        SELECTIVITY.put(TestRunEntity.HOST_NAME, 1);
+        SELECTIVITY.put(TestRunEntity.DEVICE_PRODUCT, 2);
+        SELECTIVITY.put(TestRunEntity.DEVICE_BUILD_FLAVOR, 2);
+        SELECTIVITY.put(TestRunEntity.DEVICE_BRANCH, 3);
+        SELECTIVITY.put(DeviceInfoEntity.BUILD_FLAVOR, 2);
+        SELECTIVITY.put(DeviceInfoEntity.BRANCH, 3);
+        SELECTIVITY.put(TestRunEntity.TYPE, 4);
+        SELECTIVITY.put(Entity.KEY_RESERVED_PROPERTY, 5);
+        SELECTIVITY.put(TestRunEntity.PASS_COUNT, 6);
+        SELECTIVITY.put(TestRunEntity.FAIL_COUNT, 6);
+
+        for (String kind : Arrays.asList(TestRunEntity.KIND, TestPlanRunEntity.KIND)) {
+            addIndex(DESCENDING_INDEXES, kind);
+            addIndex(DESCENDING_INDEXES, kind, TestRunEntity.TYPE);
+            addIndex(DESCENDING_INDEXES, kind, TestRunEntity.TEST_BUILD_ID);
+            addIndex(DESCENDING_INDEXES, kind, TestRunEntity.TYPE, TestRunEntity.TEST_BUILD_ID);
+            addIndex(ASCENDING_INDEXES, kind, TestRunEntity.TYPE);
+            addIndex(DESCENDING_INDEXES, kind, TestRunEntity.DEVICE_BRANCH);
+            addIndex(DESCENDING_INDEXES, kind, TestRunEntity.DEVICE_BUILD_FLAVOR);
+            addIndex(DESCENDING_INDEXES, kind, TestRunEntity.DEVICE_BUILD_ID);
+            addIndex(
+                    DESCENDING_INDEXES,
+                    kind,
+                    TestRunEntity.DEVICE_BRANCH,
+                    TestRunEntity.DEVICE_BUILD_FLAVOR);
+            addIndex(DESCENDING_INDEXES, kind, TestRunEntity.TYPE, TestRunEntity.DEVICE_BRANCH);
+            addIndex(
+                    DESCENDING_INDEXES,
+                    kind,
+                    TestRunEntity.TYPE,
+                    TestRunEntity.DEVICE_BUILD_FLAVOR);
+            addIndex(
+                    DESCENDING_INDEXES,
+                    kind,
+                    TestRunEntity.TYPE,
+                    TestRunEntity.DEVICE_BRANCH,
+                    TestRunEntity.DEVICE_BUILD_FLAVOR);
+        }
+        // Test plan runs have no host name.
+        addIndex(DESCENDING_INDEXES, TestRunEntity.KIND, TestRunEntity.HOST_NAME);
+        addIndex(
+                DESCENDING_INDEXES,
+                TestRunEntity.KIND,
+                TestRunEntity.TYPE,
+                TestRunEntity.HOST_NAME);
+        addIndex(DESCENDING_INDEXES, DeviceInfoEntity.KIND, DeviceInfoEntity.BRANCH);
+        addIndex(DESCENDING_INDEXES, DeviceInfoEntity.KIND, DeviceInfoEntity.BUILD_FLAVOR);
+        addIndex(
+                DESCENDING_INDEXES,
+                DeviceInfoEntity.KIND,
+                DeviceInfoEntity.BRANCH,
+                DeviceInfoEntity.BUILD_FLAVOR);
+    }
+
+    private static void addIndex(
+            Map<String, List<Set<String>>> indexes, String kind, String... properties) {
+        indexes.computeIfAbsent(kind, k -> new ArrayList<>())
+                .add(new HashSet<>(Arrays.asList(properties)));
+    }
+
+    /**
+     * Get the known composite indexes which end in a key sort.
+     *
+     * @param dir The direction of the key sort.
+     * @return The map from entity kind to the property sets of its indexes.
+     */
+    static Map<String, List<Set<String>>> getIndexes(Query.SortDirection dir) {
+        return dir == Query.SortDirection.DESCENDING ? DESCENDING_INDEXES : ASCENDING_INDEXES;
+    }
+
+    /** Plan, the result of planning a filtered run query. */
+    public static class Plan {
+        private final List<Filter> streamFilters;
+        private final List<Filter> residualFilters;
+        private final Filter deviceFilter;
+        private final boolean indexed;
+
+        private Plan(
+                List<Filter> streamFilters,
+                List<Filter> residualFilters,
+                Filter deviceFilter,
+                boolean indexed) {
+            this.streamFilters = streamFilters;
+            this.residualFilters = residualFilters;
+            this.deviceFilter = deviceFilter;
+            this.indexed = indexed;
+        }
+
+        /** Get the run filters to execute as key-ordered queries, most selective first. */
+        public List<Filter> getStreamFilters() {
+            return streamFilters;
+        }
+
+        /** Get the run filters which cannot be read in key order, most selective first. */
+        public List<Filter> getResidualFilters() {
+            return residualFilters;
+        }
+
+        /** Get the filter on devices, or null if there is none. */
+        public Filter getDeviceFilter() {
+            return deviceFilter;
+        }
+
+        /** Whether every query in the plan is served by a known index. */
+        public boolean isIndexed() {
+            return indexed;
+        }
+
+        @Override
+        public String toString() {
+            return "streams="
+                    + streamFilters
+                    + ", residual="
+                    + residualFilters
+                    + ", device="
+                    + deviceFilter
+                    + ", indexed="
+                    + indexed;
+        }
+    }
+
+    /**
+     * Plan the execution of a filtered run query.
+     *
+     * @param kind The entity kind of the runs.
+     * @param testFilters The filters to apply to the runs.
+     * @param deviceFilter The filter to apply to the devices of each run, or null.
+     * @param dir The sort direction of the query.
+     * @return The plan to execute.
+     */
+    public static Plan plan(
+            String kind, List<Filter> testFilters, Filter deviceFilter, Query.SortDirection dir) {
+        List<Filter> candidates = new ArrayList<>();
+        List<Filter> residualFilters = new ArrayList<>();
+        for (Filter testFilter : testFilters) {
+            if (testFilter == null) {
+                continue;
+            }
+            if (isKeyOrdered(testFilter)) {
+                candidates.add(testFilter);
+            } else {
+                residualFilters.add(testFilter);
+            }
+        }
+        Comparator<Filter> bySelectivity = Comparator.comparingInt(FilterPlanner::getSelectivity);
+        candidates.sort(bySelectivity);
+        residualFilters.sort(bySelectivity);
+
+        // Greedily push each filter into the first query whose index still covers it.
+        List<Filter> streamFilters = new ArrayList<>();
+        List<Set<String>> streamProperties = new ArrayList<>();
+        for (Filter candidate : candidates) {
+            Set<String> properties = getEqualityProperties(candidate);
+            boolean merged = false;
+            for (int i = 0; i < streamFilters.size(); i++) {
+                Set<String> combined = new HashSet<>(streamProperties.get(i));
+                combined.addAll(properties);
+                if (hasIndex(kind, combined, dir)) {
+                    streamFilters.set(
+                            i, CompositeFilterOperator.and(streamFilters.get(i), candidate));
+                    streamProperties.set(i, combined);
+                    merged = true;
+                    break;
+                }
+            }
+            if (!merged) {
+                streamFilters.add(candidate);
+                streamProperties.add(properties);
+            }
+        }
+
+        boolean indexed = !streamFilters.isEmpty();
+        for (Set<String> properties : streamProperties) {
+            indexed &= hasIndex(kind, properties, dir);
+        }
+        if (deviceFilter != null) {
+            indexed &=
+                    isKeyOrdered(deviceFilter)
+                            && hasIndex(
+                                    DeviceInfoEntity.KIND,
+                                    getEqualityProperties(deviceFilter),
+                                    dir);
+        }
+        return new Plan(streamFilters, residualFilters, deviceFilter, indexed);
+    }
+
+    /**
+     * Test whether an ancestor query on the kind, sorted by key, is served by an index.
+     *
+     * @param kind The entity kind to query.
+     * @param properties The properties with equality filters.
+     * @param dir The direction of the key sort.
+     * @return True if a built-in or known composite index serves the query.
+     */
+    static boolean hasIndex(String kind, Set<String> properties, Query.SortDirection dir) {
+        if (dir == Query.SortDirection.ASCENDING && properties.size() <= 1) {
+            return true; // served by the built-in indexes
+        }
+        return getIndexes(dir).getOrDefault(kind, Collections.emptyList()).contains(properties);
+    }
+
+    /**
+     * Test whether a filter can be served by a query sorted on the entity key.
+     *
+     * @param filter The filter to test.
+     * @return True if the filter has no inequality on a property other than the key.
+     */
+    static boolean isKeyOrdered(Filter filter) {
+        if (filter instanceof CompositeFilter) {
+            CompositeFilter compositeFilter = (CompositeFilter) filter;
+            if (compositeFilter.getOperator() != CompositeFilterOperator.AND) {
+                return false;
+            }
+            for (Filter subFilter : compositeFilter.getSubFilters()) {
+                if (!isKeyOrdered(subFilter)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (filter instanceof FilterPredicate) {
+            FilterPredicate predicate = (FilterPredicate) filter;
+            return predicate.getOperator() == FilterOperator.EQUAL
+                    || predicate.getOperator() == FilterOperator.IN
+                    || predicate.getPropertyName().equals(Entity.KEY_RESERVED_PROPERTY);
+        }
+        return false;
+    }
+
+    /**
+     * Get the properties constrained by equality in a filter.
+     *
+     * @param filter The filter to inspect.
+     * @return The set of property names with an equality or IN filter.
+     */
+    static Set<String> getEqualityProperties(Filter filter) {
+        Set<String> properties = new HashSet<>();
+        if (filter instanceof CompositeFilter) {
+            for (Filter subFilter : ((CompositeFilter) filter).getSubFilters()) {
+                properties.addAll(getEqualityProperties(subFilter));
+            }
+        } else if (filter instanceof FilterPredicate) {
+            FilterPredicate predicate = (FilterPredicate) filter;
+            if (predicate.getOperator() == FilterOperator.EQUAL
+                    || predicate.getOperator() == FilterOperator.IN) {
+                properties.add(predicate.getPropertyName());
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Estimate the selectivity of a filter.
+     *
+     * @param filter The filter to estimate.
+     * @return The rank of the most selective property in the filter, lower being more selective.
+     */
+    static int getSelectivity(Filter filter) {
+        if (filter instanceof CompositeFilter) {
+            int selectivity = Integer.MAX_VALUE;
+            for (Filter subFilter : ((CompositeFilter) filter).getSubFilters()) {
+                selectivity = Math.min(selectivity, getSelectivity(subFilter));
+            }
+            return selectivity;
+        } else if (filter instanceof FilterPredicate) {
+            return SELECTIVITY.getOrDefault(
+                    ((FilterPredicate) filter).getPropertyName(), Integer.MAX_VALUE);
+        }
+        return Integer.MAX_VALUE;
+    }
+}
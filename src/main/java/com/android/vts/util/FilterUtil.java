@@ -16,6 +16,7 @@ package com.android.vts.util;
 import com.android.vts.entity.DeviceInfoEntity;
 import com.android.vts.entity.ProfilingPointRunEntity;
 import com.android.vts.entity.TestRunEntity;
+import com.google.appengine.api.datastore.DatastoreNeedIndexException;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
@@ -23,12 +24,16 @@ import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilter;
 import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
 import com.google.appengine.api.datastore.Query.Filter;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
-import com.google.gson.Gson;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
@@ -39,6 +44,7 @@ import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -50,7 +56,29 @@ import javax.servlet.http.HttpServletRequest;
 /** FilterUtil, a helper class for parsing and matching search queries to data. */
 public class FilterUtil {
     protected static final Logger logger = Logger.getLogger(FilterUtil.class.getName());
-    private static final String INEQUALITY_REGEX = "(<=|>=|<|>|=)";
+    private static final Pattern INEQUALITY_PATTERN = Pattern.compile("(<=|>=|<|>|=)");
+
+    /** Device properties which are copied onto runs, mapped to the property of the run. */
+    private static final Map<String, String> RUN_DEVICE_PROPERTIES = new HashMap<>();
+
+    static {
+        RUN_DEVICE_PROPERTIES.put(DeviceInfoEntity.BRANCH, TestRunEntity.DEVICE_BRANCH);
+        RUN_DEVICE_PROPERTIES.put(DeviceInfoEntity.PRODUCT, TestRunEntity.DEVICE_PRODUCT);
+        RUN_DEVICE_PROPERTIES.put(DeviceInfoEntity.BUILD_FLAVOR, TestRunEntity.DEVICE_BUILD_FLAVOR);
+        RUN_DEVICE_PROPERTIES.put(DeviceInfoEntity.BUILD_ID, TestRunEntity.DEVICE_BUILD_ID);
+    }
+
+    /**
+     * Whether device filters are applied to the device attributes copied onto runs. Runs ingested
+     * before the attributes were added only carry them once VtsRunDeviceBackfillJobServlet has
+     * gone through every run, so this is only enabled after the backfill finished.
+     */
+    private static boolean runDeviceAttributesEnabled = false;
+
+    public static void setPropertyValues(Properties systemConfigProp) {
+        runDeviceAttributesEnabled =
+                Boolean.parseBoolean(systemConfigProp.getProperty("filter.runDeviceAttributes"));
+    }
 
     /** Key class to represent a filter token. */
     public enum FilterKey {
@@ -136,8 +164,7 @@ public class FilterUtil {
          */
         public FilterPredicate getFilterForNumber(String matchNumber) {
             String numberString = matchNumber.trim();
-            Pattern p = Pattern.compile(INEQUALITY_REGEX);
-            Matcher m = p.matcher(numberString);
+            Matcher m = INEQUALITY_PATTERN.matcher(numberString);
 
             // Default operator is equality.
             FilterOperator op = FilterOperator.EQUAL;
@@ -218,20 +245,7 @@ public class FilterUtil {
      * @return A filter with the values from the user search parameters.
      */
     public static Filter getUserDeviceFilter(Map<String, String[]> parameterMap) {
-        Filter deviceFilter = null;
-        for (String key : parameterMap.keySet()) {
-            if (!FilterKey.isDeviceKey(key)) continue;
-            String value = getFirstParameter(parameterMap, key);
-            if (value == null) continue;
-            FilterKey filterKey = FilterKey.parse(key);
-            Filter f = filterKey.getFilterForString(value);
-            if (deviceFilter == null) {
-                deviceFilter = f;
-            } else {
-                deviceFilter = CompositeFilterOperator.and(deviceFilter, f);
-            }
-        }
-        return deviceFilter;
+        return UserFilter.compile(parameterMap).getDeviceFilter();
     }
 
     /**
@@ -241,26 +255,7 @@ public class FilterUtil {
      * @return A list of filters, each having at most one inequality filter.
      */
     public static List<Filter> getUserTestFilters(Map<String, String[]> parameterMap) {
-        List<Filter> userFilters = new ArrayList<>();
-        for (String key : parameterMap.keySet()) {
-            if (!FilterKey.isTestKey(key)) continue;
-            String stringValue = getFirstParameter(parameterMap, key);
-            if (stringValue == null) continue;
-            FilterKey filterKey = FilterKey.parse(key);
-            switch (filterKey) {
-                case NONPASSING:
-                case PASSING:
-                    userFilters.add(filterKey.getFilterForNumber(stringValue));
-                    break;
-                case HOSTNAME:
-                case VTS_BUILD_ID:
-                    userFilters.add(filterKey.getFilterForString(stringValue.toLowerCase()));
-                    break;
-                default:
-                    continue;
-            }
-        }
-        return userFilters;
+        return UserFilter.compile(parameterMap).getTestFilters();
     }
 
     /**
@@ -396,7 +391,10 @@ public class FilterUtil {
     public static Filter getTimeFilter(
             Key testKey, String kind, Long startTime, Long endTime, Filter testRunFilter) {
         if (startTime == null && endTime == null) {
-            endTime = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+            // Without a window the newest runs are selected. The bound is left open rather than
+            // set to the current time, so the filter is the same on every request and the keys
+            // matching it can be cached.
+            endTime = Long.MAX_VALUE;
         }
 
         Filter startFilter = null;
@@ -433,9 +431,127 @@ public class FilterUtil {
         return getTimeFilter(testKey, kind, startTime, endTime, null);
     }
 
+    /** A page of matching run keys, with whether more runs exist on either side of it. */
+    public static class MatchingKeyPage {
+        private final List<Key> keys;
+        private final boolean hasNewer;
+        private final boolean hasOlder;
+
+        private MatchingKeyPage(List<Key> keys, boolean hasNewer, boolean hasOlder) {
+            this.keys = keys;
+            this.hasNewer = hasNewer;
+            this.hasOlder = hasOlder;
+        }
+
+        /** Get the keys on the page, in the requested order. */
+        public List<Key> getKeys() {
+            return keys;
+        }
+
+        /** Whether there are runs newer than the page. */
+        public boolean hasNewer() {
+            return hasNewer;
+        }
+
+        /** Whether there are runs older than the page. */
+        public boolean hasOlder() {
+            return hasOlder;
+        }
+    }
+
+    /**
+     * Get a page of keys matching the provided filters, and whether more runs exist before or
+     * after it.
+     *
+     * <p>One extra key is fetched in the direction of the query to find out whether the page is
+     * followed by more matches. Runs beyond an explicit time bound of the window are checked with
+     * single-key queries issued before the main fetch, so they overlap with it; open bounds need
+     * no query at all.
+     *
+     * @param ancestorKey The ancestor key to use in the query.
+     * @param kind The entity kind to use in the test query.
+     * @param testFilters The filter list to apply to test runs (each having <=1 inequality filter).
+     * @param deviceFilter The filter to apply to associated devices.
+     * @param dir The sort direction of the returned list.
+     * @param maxSize The maximum number of entities to return.
+     * @param startTime The start time of the window in microseconds, or null if unbounded.
+     * @param endTime The end time of the window in microseconds, or null if unbounded.
+     * @return the page of keys matching the provided test and device filters.
+     */
+    public static MatchingKeyPage getMatchingKeyPage(
+            Key ancestorKey,
+            String kind,
+            List<Filter> testFilters,
+            Filter deviceFilter,
+            Query.SortDirection dir,
+            int maxSize,
+            Long startTime,
+            Long endTime) {
+        Supplier<Integer> newerThanWindow =
+                countBeyond(ancestorKey, kind, endTime, FilterOperator.GREATER_THAN);
+        Supplier<Integer> olderThanWindow =
+                countBeyond(ancestorKey, kind, startTime, FilterOperator.LESS_THAN);
+
+        List<Key> keys =
+                getMatchingKeys(ancestorKey, kind, testFilters, deviceFilter, dir, maxSize + 1);
+        boolean beyondPage = keys.size() > maxSize;
+        if (beyondPage) {
+            keys = new ArrayList<>(keys.subList(0, maxSize));
+        }
+        boolean hasNewer =
+                (beyondPage && dir == Query.SortDirection.ASCENDING) || isNonZero(newerThanWindow);
+        boolean hasOlder =
+                (beyondPage && dir == Query.SortDirection.DESCENDING) || isNonZero(olderThanWindow);
+        return new MatchingKeyPage(keys, hasNewer, hasOlder);
+    }
+
+    /**
+     * Start counting, up to one, the runs beyond a time bound.
+     *
+     * @param ancestorKey The ancestor key of the runs.
+     * @param kind The entity kind of the runs.
+     * @param bound The (exclusive) time bound in microseconds, or null if unbounded.
+     * @param op The direction of the comparison with the bound.
+     * @return The pending count, or null if the bound is open.
+     */
+    private static Supplier<Integer> countBeyond(
+            Key ancestorKey, String kind, Long bound, FilterOperator op) {
+        if (bound == null) {
+            return null;
+        }
+        Key boundKey = KeyFactory.createKey(ancestorKey, kind, bound);
+        Query query =
+                new Query(kind)
+                        .setAncestor(ancestorKey)
+                        .setFilter(new FilterPredicate(Entity.KEY_RESERVED_PROPERTY, op, boundKey))
+                        .setKeysOnly();
+        // The asynchronous service only offers a blocking count, so the keys are listed instead;
+        // the list starts fetching now and its size waits for the result.
+        List<Entity> keys =
+                DatastoreServiceFactory.getAsyncDatastoreService()
+                        .prepare(query)
+                        .asList(FetchOptions.Builder.withLimit(1));
+        return Suppliers.memoize(() -> keys.size());
+    }
+
+    private static boolean isNonZero(Supplier<Integer> count) {
+        if (count == null) {
+            return false;
+        }
+        try {
+            return count.get() > 0;
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error counting runs beyond the window", e);
+            return false;
+        }
+    }
+
     /**
      * Get the list of keys matching the provided test filter and device filter.
      *
+     * <p>Results are cached in {@link MatchingKeyCache} until a new run is ingested under the
+     * ancestor.
+     *
      * @param ancestorKey The ancestor key to use in the query.
      * @param kind The entity kind to use in the test query.
      * @param testFilters The filter list to apply to test runs (each having <=1 inequality filter).
@@ -451,6 +567,240 @@ public class FilterUtil {
             Filter deviceFilter,
             Query.SortDirection dir,
             int maxSize) {
+        Long generation = MatchingKeyCache.getGeneration(ancestorKey);
+        if (generation == null) {
+            return queryMatchingKeys(ancestorKey, kind, testFilters, deviceFilter, dir, maxSize);
+        }
+        String signature =
+                MatchingKeyCache.getSignature(
+                        ancestorKey, kind, testFilters, deviceFilter, dir, maxSize);
+        List<Key> gets = MatchingKeyCache.get(generation, signature);
+        if (gets == null) {
+            gets = queryMatchingKeys(ancestorKey, kind, testFilters, deviceFilter, dir, maxSize);
+            MatchingKeyCache.put(generation, signature, gets);
+        } else {
+            logger.log(Level.INFO, "cached matching keys => " + gets.size());
+        }
+        return gets;
+    }
+
+    /**
+     * Query the list of keys matching the provided test filter and device filter.
+     *
+     * <p>The filters are planned by {@link FilterPlanner}. Filters which can be served in key order
+     * are combined into as few indexed queries as possible, streamed and intersected with a sorted
+     * merge-join, so only as many keys are read as are needed to fill the page. Filters with an
+     * inequality on a property other than the key are loaded in full, most selective first, and
+     * checked against each candidate. Plans without a known index are intersected in memory.
+     *
+     * @param ancestorKey The ancestor key to use in the query.
+     * @param kind The entity kind to use in the test query.
+     * @param testFilters The filter list to apply to test runs (each having <=1 inequality filter).
+     * @param deviceFilter The filter to apply to associated devices.
+     * @param dir The sort direction of the returned list.
+     * @param maxSize The maximum number of entities to return.
+     * @return a list of keys matching the provided test and device filters.
+     */
+    private static List<Key> queryMatchingKeys(
+            Key ancestorKey,
+            String kind,
+            List<Filter> testFilters,
+            Filter deviceFilter,
+            Query.SortDirection dir,
+            int maxSize) {
+        if (runDeviceAttributesEnabled && deviceFilter != null) {
+            Filter runDeviceFilter = toRunDeviceFilter(deviceFilter);
+            if (runDeviceFilter != null) {
+                testFilters = new ArrayList<>(testFilters);
+                testFilters.add(runDeviceFilter);
+                deviceFilter = null;
+            }
+        }
+        FilterPlanner.Plan plan = FilterPlanner.plan(kind, testFilters, deviceFilter, dir);
+        logger.log(Level.INFO, "plan => " + plan);
+        if (!plan.isIndexed()) {
+            return getMatchingKeysByIntersection(
+                    ancestorKey, kind, testFilters, deviceFilter, dir, maxSize);
+        }
+
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        try {
+            List<Set<Key>> residualMatches = new ArrayList<>();
+            for (Filter residualFilter : plan.getResidualFilters()) {
+                Query residualQuery =
+                        new Query(kind)
+                                .setAncestor(ancestorKey)
+                                .setFilter(residualFilter)
+                                .setKeysOnly();
+                Set<Key> filterMatches = new HashSet<>();
+                for (Entity testRunKey :
+                        datastore
+                                .prepare(residualQuery)
+                                .asIterable(DatastoreHelper.getLargeBatchOptions())) {
+                    filterMatches.add(testRunKey.getKey());
+                }
+                if (filterMatches.isEmpty()) {
+                    return new ArrayList<>();
+                }
+                residualMatches.add(filterMatches);
+            }
+
+            FetchOptions ops = FetchOptions.Builder.withChunkSize(maxSize).prefetchSize(maxSize);
+            List<PeekingIterator<Key>> streams = new ArrayList<>();
+            for (Filter streamFilter : plan.getStreamFilters()) {
+                Query testQuery =
+                        new Query(kind)
+                                .setAncestor(ancestorKey)
+                                .setFilter(streamFilter)
+                                .addSort(Entity.KEY_RESERVED_PROPERTY, dir)
+                                .setKeysOnly();
+                logger.log(Level.INFO, "testQuery => " + testQuery);
+                streams.add(
+                        Iterators.peekingIterator(
+                                Iterators.transform(
+                                        datastore.prepare(testQuery).asIterator(ops),
+                                        Entity::getKey)));
+            }
+
+            if (deviceFilter != null) {
+                // Devices are children of the runs, so the device stream starts below the
+                // first run key and is mapped to the parent run keys.
+                if (!streams.get(0).hasNext()) {
+                    return new ArrayList<>();
+                }
+                Key head = streams.get(0).peek();
+                Filter boundFilter;
+                if (dir == Query.SortDirection.DESCENDING) {
+                    boundFilter =
+                            new FilterPredicate(
+                                    Entity.KEY_RESERVED_PROPERTY,
+                                    FilterOperator.LESS_THAN_OR_EQUAL,
+                                    KeyFactory.createKey(
+                                            head, DeviceInfoEntity.KIND, Long.MAX_VALUE));
+                } else {
+                    boundFilter =
+                            new FilterPredicate(
+                                    Entity.KEY_RESERVED_PROPERTY,
+                                    FilterOperator.GREATER_THAN_OR_EQUAL,
+                                    KeyFactory.createKey(head, DeviceInfoEntity.KIND, 1));
+                }
+                Query deviceQuery =
+                        new Query(DeviceInfoEntity.KIND)
+                                .setAncestor(ancestorKey)
+                                .setFilter(CompositeFilterOperator.and(deviceFilter, boundFilter))
+                                .addSort(Entity.KEY_RESERVED_PROPERTY, dir)
+                                .setKeysOnly();
+                logger.log(Level.INFO, "deviceQuery => " + deviceQuery);
+                Iterator<Key> parentKeys =
+                        Iterators.transform(
+                                datastore.prepare(deviceQuery).asIterator(ops),
+                                device -> device.getKey().getParent());
+                streams.add(Iterators.peekingIterator(new DistinctIterator<>(parentKeys)));
+            }
+
+            Comparator<Key> order =
+                    dir == Query.SortDirection.DESCENDING
+                            ? Comparator.reverseOrder()
+                            : Comparator.naturalOrder();
+            List<Key> gets =
+                    MergeJoin.intersect(
+                            streams,
+                            order,
+                            key -> {
+                                for (Set<Key> matches : residualMatches) {
+                                    if (!matches.contains(key)) {
+                                        return false;
+                                    }
+                                }
+                                return true;
+                            },
+                            maxSize);
+            logger.log(Level.INFO, "allMatchingKeys => " + gets);
+            return gets;
+        } catch (DatastoreNeedIndexException e) {
+            logger.log(Level.WARNING, "Missing index for merge-join, intersecting in memory", e);
+            return getMatchingKeysByIntersection(
+                    ancestorKey, kind, testFilters, deviceFilter, dir, maxSize);
+        }
+    }
+
+    /**
+     * Rewrite a filter on devices as a filter on the device attributes copied onto runs.
+     *
+     * <p>A run matches if any of its devices has each value, which is the same as the device
+     * filter for the usual single device runs.
+     *
+     * @param deviceFilter The filter on device properties.
+     * @return The filter on run properties, or null if the filter can't be rewritten.
+     */
+    static Filter toRunDeviceFilter(Filter deviceFilter) {
+        if (deviceFilter instanceof CompositeFilter) {
+            CompositeFilter compositeFilter = (CompositeFilter) deviceFilter;
+            if (compositeFilter.getOperator() != CompositeFilterOperator.AND) {
+                return null;
+            }
+            List<Filter> subFilters = new ArrayList<>();
+            for (Filter subFilter : compositeFilter.getSubFilters()) {
+                Filter runSubFilter = toRunDeviceFilter(subFilter);
+                if (runSubFilter == null) {
+                    return null;
+                }
+                subFilters.add(runSubFilter);
+            }
+            return CompositeFilterOperator.and(subFilters);
+        } else if (deviceFilter instanceof FilterPredicate) {
+            FilterPredicate predicate = (FilterPredicate) deviceFilter;
+            String runProperty = RUN_DEVICE_PROPERTIES.get(predicate.getPropertyName());
+            if (runProperty == null || predicate.getOperator() != FilterOperator.EQUAL) {
+                return null;
+            }
+            return new FilterPredicate(runProperty, FilterOperator.EQUAL, predicate.getValue());
+        }
+        return null;
+    }
+
+    /** Iterator skipping consecutive duplicates of a sorted stream. */
+    private static class DistinctIterator<T> implements Iterator<T> {
+        private final PeekingIterator<T> delegate;
+
+        DistinctIterator(Iterator<T> delegate) {
+            this.delegate = Iterators.peekingIterator(delegate);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return delegate.hasNext();
+        }
+
+        @Override
+        public T next() {
+            T value = delegate.next();
+            while (delegate.hasNext() && delegate.peek().equals(value)) {
+                delegate.next();
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Get the list of keys matching the provided filters by loading every match of each filter
+     * and intersecting the results in memory.
+     *
+     * @param ancestorKey The ancestor key to use in the query.
+     * @param kind The entity kind to use in the test query.
+     * @param testFilters The filter list to apply to test runs (each having <=1 inequality filter).
+     * @param deviceFilter The filter to apply to associated devices.
+     * @param dir The sort direction of the returned list.
+     * @param maxSize The maximum number of entities to return.
+     * @return a list of keys matching the provided test and device filters.
+     */
+    private static List<Key> getMatchingKeysByIntersection(
+            Key ancestorKey,
+            String kind,
+            List<Filter> testFilters,
+            Filter deviceFilter,
+            Query.SortDirection dir,
+            int maxSize) {
         DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
         Set<Key> matchingTestKeys = null;
         Key minKey = null;
@@ -525,13 +875,6 @@ public class FilterUtil {
      * @param parameterMap The map from key to (Object) String[] value whose entries to parse.
      */
     public static void setAttributes(HttpServletRequest request, Map<String, String[]> parameterMap) {
-        for (String key : parameterMap.keySet()) {
-            if (!FilterKey.isDeviceKey(key) && !FilterKey.isTestKey(key)) continue;
-            FilterKey filterKey = FilterKey.parse(key);
-            String[] values = parameterMap.get(key);
-            if (values.length == 0) continue;
-            String stringValue = values[0];
-            request.setAttribute(filterKey.keyString, new Gson().toJson(stringValue));
-        }
+        UserFilter.compile(parameterMap).setAttributes(request);
     }
 }
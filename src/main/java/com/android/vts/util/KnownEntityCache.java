@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.googlecode.objectify.Key;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of entities known to be stored with a given state, used to skip saving shared metadata
+ * entities which haven't changed.
+ *
+ * <p>The state of an entity is its toString(), which lists every field of the lombok @Data
+ * entities this is used with. Known states are held in process and in memcache.
+ *
+ * <p>A locally known state is trusted without checking what other instances stored since, so the
+ * cache is only for entities whose stored state can't change once written, such as branches and
+ * build targets.
+ */
+public class KnownEntityCache {
+    private static final Logger logger = Logger.getLogger(KnownEntityCache.class.getName());
+
+    private static final String MEMCACHE_KEY_PREFIX = "knownEntity:";
+
+    /** How long a known state is trusted in memcache. */
+    private static final int MEMCACHE_EXPIRATION_SECONDS = (int) TimeUnit.HOURS.toSeconds(6);
+
+    /** How long the local map is used before it is reset, so changes by other instances show. */
+    private static final long LOCAL_EXPIRATION_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /** The maximum number of entities held in process before the local map is reset. */
+    private static final int MAX_LOCAL_ENTRIES = 10000;
+
+    private final MemcacheService memcache;
+    private final Map<String, String> localCache = new ConcurrentHashMap<>();
+    private volatile long localCacheCreated = System.currentTimeMillis();
+
+    /**
+     * Create a KnownEntityCache.
+     *
+     * @param memcache The memcache service shared across instances, or null to only cache locally.
+     */
+    public KnownEntityCache(MemcacheService memcache) {
+        this.memcache = memcache;
+    }
+
+    /**
+     * Remove the entities whose current state is known to be stored already.
+     *
+     * @param entities The list of entities to filter in place.
+     */
+    public <T> void removeKnown(List<T> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        resetExpiredLocalCache();
+
+        Map<String, String> unknownStates = new HashMap<>();
+        for (T entity : entities) {
+            String cacheKey = getCacheKey(entity);
+            String state = String.valueOf(entity);
+            if (!state.equals(this.localCache.get(cacheKey))) {
+                unknownStates.put(cacheKey, state);
+            }
+        }
+        if (!unknownStates.isEmpty() && Objects.nonNull(this.memcache)) {
+            try {
+                Map<String, Object> cachedStates = this.memcache.getAll(unknownStates.keySet());
+                for (Map.Entry<String, Object> entry : cachedStates.entrySet()) {
+                    if (unknownStates.get(entry.getKey()).equals(entry.getValue())) {
+                        this.localCache.put(entry.getKey(), (String) entry.getValue());
+                        unknownStates.remove(entry.getKey());
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Error reading known entities from memcache", e);
+            }
+        }
+        entities.removeIf(entity -> !unknownStates.containsKey(getCacheKey(entity)));
+    }
+
+    /**
+     * Record that entities were stored with their current state.
+     *
+     * @param entities The list of entities which were saved.
+     */
+    public <T> void addAll(List<T> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        Map<String, String> states = new HashMap<>();
+        for (T entity : entities) {
+            states.put(getCacheKey(entity), String.valueOf(entity));
+        }
+        if (this.localCache.size() + states.size() > MAX_LOCAL_ENTRIES) {
+            this.localCache.clear();
+        }
+        this.localCache.putAll(states);
+        if (Objects.nonNull(this.memcache)) {
+            try {
+                this.memcache.putAll(
+                        states, Expiration.byDeltaSeconds(MEMCACHE_EXPIRATION_SECONDS));
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Error writing known entities to memcache", e);
+            }
+        }
+    }
+
+    private void resetExpiredLocalCache() {
+        long now = System.currentTimeMillis();
+        if (now - this.localCacheCreated > LOCAL_EXPIRATION_MILLIS) {
+            this.localCache.clear();
+            this.localCacheCreated = now;
+        }
+    }
+
+    private static <T> String getCacheKey(T entity) {
+        return MEMCACHE_KEY_PREFIX + Key.create(entity).toWebSafeString();
+    }
+}
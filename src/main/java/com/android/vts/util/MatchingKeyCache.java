@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilter;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Cache of the run keys matching a filtered query, held in memcache.
+ *
+ * <p>Each test or test plan has a generation counter which is bumped whenever a run is ingested
+ * under it. Cached lists are stored under their filter signature and the generation they were
+ * computed at, so a list is never read again once a new run has arrived.
+ */
+public class MatchingKeyCache {
+    private static final Logger logger = Logger.getLogger(MatchingKeyCache.class.getName());
+
+    private static final String GENERATION_KEY_PREFIX = "matchingKeysGeneration:";
+    private static final String RESULT_KEY_PREFIX = "matchingKeys:";
+
+    /** How long a cached list is kept for a generation which hasn't changed. */
+    private static final int EXPIRATION_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+
+    private static MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+    /**
+     * Get the current generation of the runs under an ancestor.
+     *
+     * @param ancestorKey The key of the test or test plan.
+     * @return The generation, or null if it couldn't be read.
+     */
+    public static Long getGeneration(Key ancestorKey) {
+        String generationKey = GENERATION_KEY_PREFIX + ancestorKey;
+        try {
+            Object generation = memcache.get(generationKey);
+            if (generation == null) {
+                // Start from the current time so an evicted counter never repeats a generation.
+                memcache.put(
+                        generationKey,
+                        System.currentTimeMillis(),
+                        null,
+                        SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+                generation = memcache.get(generationKey);
+            }
+            return generation == null ? null : ((Number) generation).longValue();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error reading matching key generation", e);
+            return null;
+        }
+    }
+
+    /**
+     * Invalidate the cached lists of the runs under an ancestor.
+     *
+     * @param ancestorKey The key of the test or test plan which received a new run.
+     */
+    public static void invalidate(Key ancestorKey) {
+        try {
+            memcache.increment(
+                    GENERATION_KEY_PREFIX + ancestorKey, 1L, System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error invalidating matching keys of " + ancestorKey, e);
+        }
+    }
+
+    /**
+     * Get a cached list of matching keys.
+     *
+     * @param generation The generation of the ancestor, from getGeneration.
+     * @param signature The filter signature, from getSignature.
+     * @return The cached list of keys, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Key> get(long generation, String signature) {
+        try {
+            return (List<Key>) memcache.get(getResultKey(generation, signature));
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error reading matching keys", e);
+            return null;
+        }
+    }
+
+    /**
+     * Cache a list of matching keys.
+     *
+     * @param generation The generation of the ancestor read before the keys were queried.
+     * @param signature The filter signature, from getSignature.
+     * @param keys The list of matching keys.
+     */
+    public static void put(long generation, String signature, List<Key> keys) {
+        try {
+            memcache.put(
+                    getResultKey(generation, signature),
+                    new ArrayList<>(keys),
+                    Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error caching matching keys", e);
+        }
+    }
+
+    /**
+     * Get the normalized signature of a filtered run query.
+     *
+     * <p>The signature doesn't depend on the order of the filters, so repeated views of a page
+     * share the same cached list. A page without a time window has an open upper bound, see
+     * FilterUtil.getTimeFilter, so its signature doesn't change with the current time.
+     *
+     * @param ancestorKey The ancestor key of the query.
+     * @param kind The entity kind of the runs.
+     * @param testFilters The filters to apply to the runs.
+     * @param deviceFilter The filter to apply to the devices, or null.
+     * @param dir The sort direction of the query.
+     * @param maxSize The maximum number of keys returned.
+     * @return The signature of the query.
+     */
+    public static String getSignature(
+            Key ancestorKey,
+            String kind,
+            List<Filter> testFilters,
+            Filter deviceFilter,
+            Query.SortDirection dir,
+            int maxSize) {
+        List<String> filters = new ArrayList<>();
+        for (Filter testFilter : testFilters) {
+            filters.add(normalize(testFilter));
+        }
+        filters.sort(null);
+        return ancestorKey
+                + "|"
+                + kind
+                + "|"
+                + filters
+                + "|"
+                + normalize(deviceFilter)
+                + "|"
+                + dir
+                + "|"
+                + maxSize;
+    }
+
+    private static String normalize(Filter filter) {
+        if (filter instanceof CompositeFilter) {
+            CompositeFilter compositeFilter = (CompositeFilter) filter;
+            List<String> subFilters = new ArrayList<>();
+            for (Filter subFilter : compositeFilter.getSubFilters()) {
+                subFilters.add(normalize(subFilter));
+            }
+            subFilters.sort(null);
+            return compositeFilter.getOperator() + subFilters.toString();
+        } else if (filter instanceof FilterPredicate) {
+            FilterPredicate predicate = (FilterPredicate) filter;
+            Object value = predicate.getValue();
+            if (value instanceof Collection) {
+                List<String> values = new ArrayList<>();
+                for (Object item : (Collection<?>) value) {
+                    values.add(String.valueOf(item));
+                }
+                values.sort(null);
+                value = values;
+            }
+            return predicate.getPropertyName() + predicate.getOperator() + value;
+        }
+        return String.valueOf(filter);
+    }
+
+    private static String getResultKey(long generation, String signature) {
+        return RESULT_KEY_PREFIX + DigestUtils.sha256Hex(generation + "|" + signature);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/** MergeJoin, a helper class for intersecting streams which are sorted in the same order. */
+public class MergeJoin {
+
+    /**
+     * Intersect sorted streams, reading each stream only as far as needed to find maxSize
+     * matches.
+     *
+     * @param streams The streams to intersect, each sorted by order without duplicates.
+     * @param order The order shared by all of the streams.
+     * @param filter An additional test that each match must pass.
+     * @param maxSize The maximum number of matches to return.
+     * @return The list of values present in every stream and accepted by the filter, in order.
+     */
+    public static <T> List<T> intersect(
+            List<? extends Iterator<T>> streams,
+            Comparator<? super T> order,
+            Predicate<? super T> filter,
+            int maxSize) {
+        List<T> matches = new ArrayList<>();
+        if (streams.isEmpty() || maxSize <= 0) {
+            return matches;
+        }
+        List<T> heads = new ArrayList<>();
+        for (Iterator<T> stream : streams) {
+            if (!stream.hasNext()) {
+                return matches;
+            }
+            heads.add(stream.next());
+        }
+
+        while (matches.size() < maxSize) {
+            // No value before the furthest head can be in every stream.
+            T target = heads.get(0);
+            for (T head : heads) {
+                if (order.compare(head, target) > 0) {
+                    target = head;
+                }
+            }
+
+            boolean aligned = true;
+            for (int i = 0; i < streams.size(); i++) {
+                Iterator<T> stream = streams.get(i);
+                while (order.compare(heads.get(i), target) < 0) {
+                    if (!stream.hasNext()) {
+                        return matches;
+                    }
+                    heads.set(i, stream.next());
+                }
+                if (order.compare(heads.get(i), target) > 0) {
+                    aligned = false;
+                }
+            }
+            if (!aligned) {
+                continue;
+            }
+
+            if (filter.test(target)) {
+                matches.add(target);
+                if (matches.size() >= maxSize) {
+                    break;
+                }
+            }
+            for (int i = 0; i < streams.size(); i++) {
+                if (!streams.get(i).hasNext()) {
+                    return matches;
+                }
+                heads.set(i, streams.get(i).next());
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson.JacksonFactory;
+import com.google.api.services.oauth2.Oauth2;
+import com.google.api.services.oauth2.model.Tokeninfo;
+import java.io.IOException;
+
+/** AccessTokenVerifier which asks the remote Oauth2 tokeninfo endpoint about each token. */
+public class Oauth2AccessTokenVerifier implements AccessTokenVerifier {
+    private final String applicationName;
+
+    /**
+     * Create an Oauth2AccessTokenVerifier.
+     *
+     * @param applicationName The application name to report to the Oauth2 service.
+     */
+    public Oauth2AccessTokenVerifier(String applicationName) {
+        this.applicationName = applicationName;
+    }
+
+    @Override
+    public Tokeninfo verify(String accessToken) throws IOException {
+        GoogleCredential credential = new GoogleCredential().setAccessToken(accessToken);
+        Oauth2 oauth2 =
+                new Oauth2.Builder(new NetHttpTransport(), new JacksonFactory(), credential)
+                        .setApplicationName(this.applicationName)
+                        .build();
+        return oauth2.tokeninfo().setAccessToken(accessToken).execute();
+    }
+}
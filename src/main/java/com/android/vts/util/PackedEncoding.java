@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PackedEncoding, a helper class for storing lists of values as a single compact blob.
+ *
+ * <p>Each blob starts with the number of values. Longs follow as zigzag varint deltas from the
+ * previous value, so slowly changing series take one or two bytes per value. Strings follow as
+ * length-delimited UTF-8.
+ */
+public class PackedEncoding {
+
+    /**
+     * Pack a list of longs.
+     *
+     * @param values The values to pack.
+     * @return The packed bytes.
+     */
+    public static byte[] encodeLongs(List<Long> values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            out.writeUInt32NoTag(values.size());
+            long previous = 0;
+            for (long value : values) {
+                out.writeSInt64NoTag(value - previous);
+                previous = value;
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error packing values", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Unpack a list of longs.
+     *
+     * @param packed The bytes created by encodeLongs.
+     * @return The list of values.
+     */
+    public static List<Long> decodeLongs(byte[] packed) {
+        CodedInputStream in = CodedInputStream.newInstance(packed);
+        try {
+            int size = in.readUInt32();
+            List<Long> values = new ArrayList<>(size);
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                previous += in.readSInt64();
+                values.add(previous);
+            }
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid packed values", e);
+        }
+    }
+
+    /**
+     * Pack a list of strings.
+     *
+     * @param values The strings to pack.
+     * @return The packed bytes.
+     */
+    public static byte[] encodeStrings(List<String> values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            out.writeUInt32NoTag(values.size());
+            for (String value : values) {
+                out.writeStringNoTag(value);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Error packing strings", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Unpack a list of strings.
+     *
+     * @param packed The bytes created by encodeStrings.
+     * @return The list of strings.
+     */
+    public static List<String> decodeStrings(byte[] packed) {
+        CodedInputStream in = CodedInputStream.newInstance(packed);
+        try {
+            int size = in.readUInt32();
+            List<String> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(in.readString());
+            }
+            return values;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid packed strings", e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Cache of fully built page models, held in memcache.
+ *
+ * <p>Models are stored under the generation of their test or test plan from {@link
+ * MatchingKeyCache}, so a model is never served again once a new run has been ingested under it.
+ */
+public class PageModelCache {
+    private static final Logger logger = Logger.getLogger(PageModelCache.class.getName());
+
+    private static final String KEY_PREFIX = "pageModel:";
+
+    /** How long a model is kept for a generation which hasn't changed. */
+    private static final int EXPIRATION_SECONDS = (int) TimeUnit.HOURS.toSeconds(1);
+
+    private static MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+    /**
+     * Get a cached page model.
+     *
+     * @param generation The generation of the test or test plan, from MatchingKeyCache.
+     * @param signature The page and its parameters.
+     * @return The cached model, or null if there is none.
+     */
+    public static Serializable get(long generation, String signature) {
+        try {
+            return (Serializable) memcache.get(getKey(generation, signature));
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error reading page model", e);
+            return null;
+        }
+    }
+
+    /**
+     * Cache a page model.
+     *
+     * @param generation The generation of the test or test plan read before the model was built.
+     * @param signature The page and its parameters.
+     * @param model The built model.
+     */
+    public static void put(long generation, String signature, Serializable model) {
+        try {
+            memcache.put(
+                    getKey(generation, signature),
+                    model,
+                    Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+        } catch (RuntimeException e) {
+            // Models over the memcache value size limit are simply rebuilt on each request.
+            logger.log(Level.WARNING, "Error caching page model", e);
+        }
+    }
+
+    private static String getKey(long generation, String signature) {
+        return KEY_PREFIX + DigestUtils.sha256Hex(generation + "|" + signature);
+    }
+}
@@ -22,10 +22,8 @@ import com.googlecode.objectify.cmd.Query;
 
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
 /** Helper class for pagination. */
 public class Pagination<T> implements Iterable<T> {
@@ -53,8 +51,11 @@ public class Pagination<T> implements Iterable<T> {
     /** the next cursor string token where to start */
     private String nextPageCountToken = "";
 
-    /** the previous cursor string token list where to start */
-    private LinkedHashSet<String> pageCountTokenSet;
+    /**
+     * the cursor string tokens of the preceding pages, oldest first, carried in the page links.
+     * The first page has an empty token, which isn't listed.
+     */
+    private List<String> pageTokens = new ArrayList<>();
 
     /** the maximum number of pages */
     private int maxPages;
@@ -62,6 +63,15 @@ public class Pagination<T> implements Iterable<T> {
     /** the list of object on the page */
     private List<T> list = new ArrayList<>();
 
+    /** whether the page was fetched in keyset mode, reading only the page and one look-ahead */
+    private boolean keyset;
+
+    /** whether there is at least one more entity after the page, in keyset mode */
+    private boolean nextPageAvailable;
+
+    /** the query whose total is counted when first requested, in keyset mode */
+    private Query<T> countQuery;
+
     public Pagination(List<T> list, int page, int pageSize, int totalCount) {
         this.list = list;
         this.page = page;
@@ -74,22 +84,10 @@ public class Pagination<T> implements Iterable<T> {
             int page,
             int pageSize,
             String startPageToken,
-            LinkedHashSet<String> pageCountTokenSet) {
+            List<String> pageTokens) {
         this.page = page;
         this.pageSize = pageSize;
-        this.pageCountTokenSet = pageCountTokenSet;
-        this.currentPageCountToken = startPageToken;
-
-        List<String> pageCountTokenList =
-                this.pageCountTokenSet.stream().collect(Collectors.toList());
-        if (pageCountTokenList.size() > 0) {
-            int foundIndex = pageCountTokenList.indexOf(startPageToken);
-            if (foundIndex <= 0) {
-                this.previousPageCountToken = "";
-            } else {
-                this.previousPageCountToken = pageCountTokenList.get(foundIndex - 1);
-            }
-        }
+        this.setPageTokens(startPageToken, pageTokens);
 
         int limitValue = pageSize * DEFAULT_PAGE_WINDOW + pageSize / 2;
         query = query.limit(limitValue);
@@ -120,6 +118,66 @@ public class Pagination<T> implements Iterable<T> {
         }
     }
 
+    /**
+     * Create a page in keyset mode.
+     *
+     * <p>Only the entities on the page and a single look-ahead entity are read, starting at the
+     * cursor of the page. The total count isn't known up front and is only counted if it is
+     * requested.
+     *
+     * @param query The query ordered by key, without a limit.
+     * @param page The page number, starting at 1.
+     * @param pageSize The number of entities per page.
+     * @param startPageToken The cursor where the page starts, or an empty string for the first.
+     * @param pageTokens The cursors of the preceding pages, from the pageTokens of the link.
+     * @return The page of entities.
+     */
+    public static <T> Pagination<T> ofKeyset(
+            Query<T> query,
+            int page,
+            int pageSize,
+            String startPageToken,
+            List<String> pageTokens) {
+        Pagination<T> pagination = new Pagination<>(new ArrayList<>(), page, pageSize, -1);
+        pagination.keyset = true;
+        pagination.countQuery = query;
+        pagination.setPageTokens(startPageToken, pageTokens);
+
+        Query<T> pageQuery = query.limit(pageSize + 1);
+        if (!startPageToken.equals("")) {
+            pageQuery = pageQuery.startAt(Cursor.fromUrlSafe(startPageToken));
+        }
+        QueryResults<T> resultIterator = pageQuery.iterator();
+        while (pagination.list.size() < pageSize && resultIterator.hasNext()) {
+            pagination.list.add(resultIterator.next());
+        }
+        if (pagination.list.size() == pageSize) {
+            // The cursor has to be taken before the look-ahead entity is read.
+            Cursor cursorAfter = resultIterator.getCursorAfter();
+            pagination.nextPageAvailable = resultIterator.hasNext();
+            if (pagination.nextPageAvailable && Objects.nonNull(cursorAfter)) {
+                pagination.nextPageCountToken = cursorAfter.toUrlSafe();
+            }
+        }
+        pagination.maxPages = page + (pagination.nextPageAvailable ? 1 : 0);
+        return pagination;
+    }
+
+    /**
+     * Set the cursor of the page and of the pages preceding it. They are carried in the page links
+     * rather than kept on the server, so any number of users can page through results at once.
+     *
+     * @param startPageToken The cursor where the page starts, or an empty string for the first.
+     * @param pageTokens The cursors of the preceding pages, oldest first.
+     */
+    private void setPageTokens(String startPageToken, List<String> pageTokens) {
+        this.currentPageCountToken = startPageToken;
+        this.pageTokens = new ArrayList<>(pageTokens);
+        if (!this.pageTokens.isEmpty()) {
+            this.previousPageCountToken = this.pageTokens.get(this.pageTokens.size() - 1);
+        }
+    }
+
     public Iterator<T> iterator() {
         return list.iterator();
     }
@@ -130,9 +188,30 @@ public class Pagination<T> implements Iterable<T> {
      * @return the total number of objects as an int
      */
     public int getTotalCount() {
+        if (this.totalCount < 0 && Objects.nonNull(this.countQuery)) {
+            this.totalCount = this.countQuery.count();
+        }
         return totalCount;
     }
 
+    /**
+     * Whether the page was fetched in keyset mode, with only previous and next page links.
+     *
+     * @return true in keyset mode
+     */
+    public boolean isKeyset() {
+        return this.keyset;
+    }
+
+    /**
+     * Whether there is a page after this one, in keyset mode.
+     *
+     * @return true if at least one more entity follows the page
+     */
+    public boolean isNextPageAvailable() {
+        return this.nextPageAvailable;
+    }
+
     /**
      * Gets the number of page window.
      *
@@ -225,4 +304,56 @@ public class Pagination<T> implements Iterable<T> {
     public String getNextPageCountToken() {
         return this.nextPageCountToken;
     }
+
+    /**
+     * Gets the cursor tokens of the pages preceding this one, for links which stay in the window.
+     *
+     * @return the comma separated cursor tokens
+     */
+    public String getPageTokens() {
+        return String.join(",", this.pageTokens);
+    }
+
+    /**
+     * Gets the cursor tokens of the pages preceding the previous page, for its link.
+     *
+     * @return the comma separated cursor tokens
+     */
+    public String getPreviousPageTokens() {
+        if (this.pageTokens.isEmpty()) {
+            return "";
+        }
+        return String.join(",", this.pageTokens.subList(0, this.pageTokens.size() - 1));
+    }
+
+    /**
+     * Gets the cursor tokens of the pages preceding the next page, for its link.
+     *
+     * @return the comma separated cursor tokens
+     */
+    public String getNextPageTokens() {
+        List<String> nextPageTokens = new ArrayList<>(this.pageTokens);
+        if (!this.currentPageCountToken.isEmpty()) {
+            nextPageTokens.add(this.currentPageCountToken);
+        }
+        return String.join(",", nextPageTokens);
+    }
+
+    /**
+     * Parses the cursor tokens of the preceding pages from a page link.
+     *
+     * @param pageTokens the comma separated cursor tokens, or null
+     * @return the list of cursor tokens, oldest first
+     */
+    public static List<String> parsePageTokens(String pageTokens) {
+        List<String> tokens = new ArrayList<>();
+        if (Objects.nonNull(pageTokens)) {
+            for (String token : pageTokens.split(",")) {
+                if (!token.trim().isEmpty()) {
+                    tokens.add(token.trim());
+                }
+            }
+        }
+        return tokens;
+    }
 }
@@ -0,0 +1,538 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.QueryResults;
+import com.google.cloud.datastore.StructuredQuery;
+import com.google.cloud.datastore.Transaction;
+import com.google.common.util.concurrent.ForwardingFuture;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * RpcAccounting, a helper class for counting the datastore calls made while serving a request.
+ *
+ * <p>Calls made through the low-level DatastoreService are seen by an ApiProxy delegate, and
+ * calls made through Objectify by a proxy around its Datastore client. Each call is recorded
+ * against the request running on the current thread, together with the code location which made
+ * it, and requests slower than the configured threshold are kept for the admin page.
+ *
+ * <p>Finding the code location walks the stack on every call, so accounting is disabled unless
+ * configured, and then only a sample of the requests is recorded.
+ */
+public class RpcAccounting {
+    private static final Logger logger = Logger.getLogger(RpcAccounting.class.getName());
+
+    /** The ApiProxy package of the low-level datastore calls. */
+    private static final String DATASTORE_PACKAGE = "datastore_v3";
+
+    /** The Objectify Datastore client methods which issue a remote call. */
+    private static final Set<String> RPC_METHODS =
+            new HashSet<>(
+                    Arrays.asList(
+                            "get",
+                            "fetch",
+                            "run",
+                            "put",
+                            "add",
+                            "update",
+                            "delete",
+                            "allocateId",
+                            "reserveIds",
+                            "newTransaction",
+                            "commit",
+                            "rollback"));
+
+    /** The number of slow requests kept for the admin page. */
+    private static final int MAX_SLOW_REQUESTS = 100;
+
+    private static final ThreadLocal<RequestRecord> currentRequest = new ThreadLocal<>();
+    private static final ConcurrentLinkedDeque<RequestRecord> slowRequests =
+            new ConcurrentLinkedDeque<>();
+
+    private static volatile boolean enabled = false;
+    private static volatile long slowRequestMillis = 1000;
+
+    /** The fraction of requests which are recorded while accounting is enabled. */
+    private static volatile double sampleRate = 0.1;
+
+    public static void setPropertyValues(Properties systemConfigProp) {
+        enabled = Boolean.parseBoolean(systemConfigProp.getProperty("rpcAccounting.enabled"));
+        String slowRequest = systemConfigProp.getProperty("rpcAccounting.slowRequestMillis");
+        if (slowRequest != null) {
+            try {
+                slowRequestMillis = Long.parseLong(slowRequest.trim());
+            } catch (NumberFormatException e) {
+                logger.log(Level.WARNING, "Invalid slow request threshold: " + slowRequest);
+            }
+        }
+        String rate = systemConfigProp.getProperty("rpcAccounting.sampleRate");
+        if (rate != null) {
+            try {
+                sampleRate = Double.parseDouble(rate.trim());
+            } catch (NumberFormatException e) {
+                logger.log(Level.WARNING, "Invalid sample rate: " + rate);
+            }
+        }
+    }
+
+    /** The calls of one method made from one code location. */
+    public static class CallRecord {
+        private final String method;
+        private final String shape;
+        private long calls;
+        private long entities;
+        private long millis;
+
+        private CallRecord(String method, String shape) {
+            this.method = method;
+            this.shape = shape;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getShape() {
+            return shape;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getEntities() {
+            return entities;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    /** The datastore calls made while serving one request or job. */
+    public static class RequestRecord {
+        private final String name;
+        private final long startTime;
+        private long elapsedMillis;
+        private final Map<String, CallRecord> calls = new LinkedHashMap<>();
+
+        private RequestRecord(String name) {
+            this.name = name;
+            this.startTime = System.currentTimeMillis();
+        }
+
+        private void record(String method, String shape, long entities, long millis) {
+            record(method, shape, 1, entities, millis);
+        }
+
+        private synchronized void record(
+                String method, String shape, long callCount, long entities, long millis) {
+            CallRecord call =
+                    calls.computeIfAbsent(method + " " + shape, k -> new CallRecord(method, shape));
+            call.calls += callCount;
+            call.entities += entities;
+            call.millis += millis;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** Get the calls made by the request, most expensive first. */
+        public synchronized List<CallRecord> getCalls() {
+            List<CallRecord> callList = new ArrayList<>(calls.values());
+            callList.sort((a, b) -> Long.compare(b.millis, a.millis));
+            return callList;
+        }
+
+        public synchronized long getTotalCalls() {
+            return calls.values().stream().mapToLong(CallRecord::getCalls).sum();
+        }
+
+        public synchronized long getTotalEntities() {
+            return calls.values().stream().mapToLong(CallRecord::getEntities).sum();
+        }
+
+        public synchronized long getTotalMillis() {
+            return calls.values().stream().mapToLong(CallRecord::getMillis).sum();
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(name)
+                    .append(": ")
+                    .append(elapsedMillis)
+                    .append(" ms, ")
+                    .append(getTotalCalls())
+                    .append(" datastore calls, ")
+                    .append(getTotalEntities())
+                    .append(" entities, ")
+                    .append(getTotalMillis())
+                    .append(" ms in datastore");
+            for (CallRecord call : getCalls()) {
+                builder.append("\n  ")
+                        .append(call.calls)
+                        .append(" x ")
+                        .append(call.method)
+                        .append(" ")
+                        .append(call.shape)
+                        .append(": ")
+                        .append(call.entities)
+                        .append(" entities, ")
+                        .append(call.millis)
+                        .append(" ms");
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Start recording the datastore calls made on the current thread.
+     *
+     * @param name The name of the request or job, such as its URI.
+     */
+    public static void begin(String name) {
+        if (enabled && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            currentRequest.set(new RequestRecord(name));
+        }
+    }
+
+    /**
+     * Stop recording the datastore calls made on the current thread, and keep the record if the
+     * request was slow.
+     *
+     * @return The record of the request, or null if nothing was being recorded.
+     */
+    public static RequestRecord end() {
+        RequestRecord request = currentRequest.get();
+        currentRequest.remove();
+        if (request == null) {
+            return null;
+        }
+        request.elapsedMillis = System.currentTimeMillis() - request.startTime;
+        if (request.elapsedMillis >= slowRequestMillis) {
+            logger.log(Level.INFO, request.toString());
+            slowRequests.addFirst(request);
+            while (slowRequests.size() > MAX_SLOW_REQUESTS) {
+                slowRequests.pollLast();
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Wrap a task started by the current request on another thread, so that the datastore calls
+     * it makes are recorded on the current request.
+     *
+     * @param task The task to run on another thread.
+     * @return The task recording its calls on the current request, or the task itself if nothing
+     *     is being recorded.
+     */
+    public static <T> Callable<T> inCurrentRequest(Callable<T> task) {
+        RequestRecord request = currentRequest.get();
+        if (request == null) {
+            return task;
+        }
+        return () -> {
+            RequestRecord previous = currentRequest.get();
+            currentRequest.set(request);
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    currentRequest.remove();
+                } else {
+                    currentRequest.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the slow requests recorded by this instance, most recent first.
+     *
+     * @return The list of slow request records.
+     */
+    public static List<RequestRecord> getSlowRequests() {
+        return Collections.unmodifiableList(new ArrayList<>(slowRequests));
+    }
+
+    /** Get the first stack frame outside of the accounting and library code. */
+    private static String getCallSite() {
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            String className = frame.getClassName();
+            if (className.startsWith("com.android.vts.")
+                    && !className.startsWith(RpcAccounting.class.getName())) {
+                return frame.getClassName()
+                        + "."
+                        + frame.getMethodName()
+                        + ":"
+                        + frame.getLineNumber();
+            }
+        }
+        return "unknown";
+    }
+
+    private static long countEntities(String method, Object[] args) {
+        if (args == null || args.length == 0 || "run".equals(method)) {
+            // The entities of a query are counted as its results are read.
+            return 0;
+        }
+        Object arg = args[0];
+        if (arg instanceof Object[]) {
+            return ((Object[]) arg).length;
+        } else if (arg instanceof Collection) {
+            return ((Collection<?>) arg).size();
+        }
+        return 1;
+    }
+
+    private static String getShape(String method, Object[] args) {
+        String shape = getCallSite();
+        if ("run".equals(method)
+                && args != null
+                && args.length > 0
+                && args[0] instanceof StructuredQuery) {
+            StructuredQuery<?> query = (StructuredQuery<?>) args[0];
+            String filter = "";
+            if (query.getFilter() != null) {
+                // Keep the properties and operators of the filter, but not the values.
+                filter = " " + query.getFilter().toString().replaceAll("value=[^,}]*", "value=?");
+            }
+            shape = query.getKind() + filter + " @ " + shape;
+        }
+        return shape;
+    }
+
+    /**
+     * Wrap the Datastore client used by Objectify so that its calls are recorded.
+     *
+     * @param datastore The Datastore client to wrap.
+     * @return A Datastore client which records its calls on the current request.
+     */
+    public static Datastore wrap(Datastore datastore) {
+        return wrap(Datastore.class, datastore);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T wrap(Class<T> type, T target) {
+        return (T)
+                Proxy.newProxyInstance(
+                        type.getClassLoader(),
+                        new Class<?>[] {type},
+                        (proxy, method, args) -> {
+                            RequestRecord request = currentRequest.get();
+                            long start = System.nanoTime();
+                            Object result;
+                            try {
+                                result = method.invoke(target, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                            if (request != null && RPC_METHODS.contains(method.getName())) {
+                                String shape = getShape(method.getName(), args);
+                                request.record(
+                                        method.getName(),
+                                        shape,
+                                        countEntities(method.getName(), args),
+                                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                                if (result instanceof QueryResults) {
+                                    result =
+                                            wrapResults(
+                                                    (QueryResults<?>) result,
+                                                    request,
+                                                    method.getName(),
+                                                    shape);
+                                }
+                            }
+                            if (result instanceof Transaction) {
+                                result = wrap(Transaction.class, (Transaction) result);
+                            }
+                            return result;
+                        });
+    }
+
+    /**
+     * Wrap the results of a query so that reading them is recorded against the query's call.
+     *
+     * <p>Only the first batch of results is fetched when the query is run, so the time spent
+     * reading the rest and the number of entities read are added as the results are iterated.
+     */
+    private static QueryResults<?> wrapResults(
+            QueryResults<?> results, RequestRecord request, String method, String shape) {
+        return (QueryResults<?>)
+                Proxy.newProxyInstance(
+                        QueryResults.class.getClassLoader(),
+                        new Class<?>[] {QueryResults.class},
+                        (proxy, resultsMethod, args) -> {
+                            long start = System.nanoTime();
+                            Object result;
+                            try {
+                                result = resultsMethod.invoke(results, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                            String name = resultsMethod.getName();
+                            if ("next".equals(name) || "hasNext".equals(name)) {
+                                request.record(
+                                        method,
+                                        shape,
+                                        0,
+                                        "next".equals(name) ? 1 : 0,
+                                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                            }
+                            return result;
+                        });
+    }
+
+    /** Install the delegate recording the low-level datastore calls, if it isn't already. */
+    @SuppressWarnings("unchecked")
+    public static synchronized void install() {
+        ApiProxy.Delegate<ApiProxy.Environment> delegate = ApiProxy.getDelegate();
+        if (delegate != null && !(delegate instanceof RecordingDelegate)) {
+            ApiProxy.setDelegate(new RecordingDelegate(delegate));
+        }
+    }
+
+    /** ApiProxy delegate recording the datastore calls made through DatastoreService. */
+    private static class RecordingDelegate implements ApiProxy.Delegate<ApiProxy.Environment> {
+        private final ApiProxy.Delegate<ApiProxy.Environment> delegate;
+
+        private RecordingDelegate(ApiProxy.Delegate<ApiProxy.Environment> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public byte[] makeSyncCall(
+                ApiProxy.Environment environment,
+                String packageName,
+                String methodName,
+                byte[] request)
+                throws ApiProxy.ApiProxyException {
+            RequestRecord record = currentRequest.get();
+            long start = System.nanoTime();
+            try {
+                return delegate.makeSyncCall(environment, packageName, methodName, request);
+            } finally {
+                if (record != null && DATASTORE_PACKAGE.equals(packageName)) {
+                    record.record(
+                            methodName,
+                            getCallSite(),
+                            0,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                }
+            }
+        }
+
+        @Override
+        public Future<byte[]> makeAsyncCall(
+                ApiProxy.Environment environment,
+                String packageName,
+                String methodName,
+                byte[] request,
+                ApiProxy.ApiConfig apiConfig) {
+            Future<byte[]> result =
+                    delegate.makeAsyncCall(
+                            environment, packageName, methodName, request, apiConfig);
+            RequestRecord record = currentRequest.get();
+            if (record == null || !DATASTORE_PACKAGE.equals(packageName)) {
+                return result;
+            }
+            String callSite = getCallSite();
+            long start = System.nanoTime();
+            AtomicBoolean recorded = new AtomicBoolean();
+            // The call is recorded when its result is first read, which bounds its latency.
+            return new ForwardingFuture.SimpleForwardingFuture<byte[]>(result) {
+                private void recordOnce() {
+                    if (recorded.compareAndSet(false, true)) {
+                        record.record(
+                                methodName,
+                                callSite,
+                                0,
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    }
+                }
+
+                @Override
+                public byte[] get() throws InterruptedException, ExecutionException {
+                    try {
+                        return super.get();
+                    } finally {
+                        recordOnce();
+                    }
+                }
+
+                @Override
+                public byte[] get(long timeout, TimeUnit unit)
+                        throws InterruptedException, ExecutionException, TimeoutException {
+                    try {
+                        return super.get(timeout, unit);
+                    } finally {
+                        recordOnce();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void log(ApiProxy.Environment environment, ApiProxy.LogRecord record) {
+            delegate.log(environment, record);
+        }
+
+        @Override
+        public void flushLogs(ApiProxy.Environment environment) {
+            delegate.flushLogs(environment);
+        }
+
+        @Override
+        public List<Thread> getRequestThreads(ApiProxy.Environment environment) {
+            return delegate.getRequestThreads(environment);
+        }
+    }
+}
@@ -20,7 +20,6 @@ import com.android.vts.entity.CodeCoverageEntity;
 import com.android.vts.entity.DeviceInfoEntity;
 import com.android.vts.entity.ProfilingPointRunEntity;
 import com.android.vts.entity.TestCaseRunEntity;
-import com.android.vts.entity.TestCaseRunEntity.TestCase;
 import com.android.vts.entity.TestEntity;
 import com.android.vts.entity.TestRunEntity;
 import com.android.vts.proto.VtsReportMessage.TestCaseResult;
@@ -31,12 +30,18 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.Query;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -51,14 +56,20 @@ public class TestResults {
             testCaseRunMap; // map from test run key to the test run information
     private Map<Key, List<DeviceInfoEntity>> deviceInfoMap; // map from test run key to device info
     private Map<String, Integer> testCaseNameMap; // map from test case name to its order
+    private List<String> testCaseNames; // test case names, one instance each, in order
     private Set<String> profilingPointNameSet; // set of profiling point names
 
+    // Columns of the report, indexed by the position of the test run in the table.
+    private int[] totalCounts; // number of test cases executed in each run
+    private int[] passCounts; // number of passing test cases in each run
+    private int[] nonpassCounts; // number of non-passing test cases in each run
+    private long[] coveredLineCounts; // number of covered lines in each run
+    private long[] totalLineCounts; // number of instrumented lines in each run
+    private byte[] aggregateResults; // aggregate test case result of each run
+    private byte[][] resultCodes; // test case result of each run, indexed by test case order
+    private List<Map<Integer, String>> systraceUrls; // systrace link for each test case of a run
+
     public String testName;
-    public String[] headerRow; // row to display above the test results table
-    public String[][] timeGrid; // grid of data storing timestamps to render as dates
-    public String[][] durationGrid; // grid of data storing timestamps to render as time intervals
-    public String[][] summaryGrid; // grid of data displaying a summary of the test run
-    public String[][] resultsGrid; // grid of data displaying test case results
     public String[] profilingPointNames; // list of profiling point names in the test run
     public Map<String, List<String[]>> logInfoMap; // map from test run index to url/display pairs
     public int[] totResultCounts; // array of test result counts for the tip-of-tree runs
@@ -66,6 +77,18 @@ public class TestResults {
     public long startTime = Long.MAX_VALUE; // oldest timestamp displayed in the results table
     public long endTime = Long.MIN_VALUE; // newest timestamp displayed in the results table
 
+    // Result code of a test case which did not execute in a test run.
+    private static final byte NO_RESULT = -1;
+
+    // Results grid cell for each test case result code.
+    private static final String[] RESULT_CELLS = new String[TestCaseResult.values().length];
+
+    static {
+        for (TestCaseResult result : TestCaseResult.values()) {
+            RESULT_CELLS[result.getNumber()] = getResultCell(result, null);
+        }
+    }
+
     // Row labels for the test time-formatted information.
     private static final String[] TIME_INFO_NAMES = {"Test Start", "Test End"};
 
@@ -99,6 +122,7 @@ public class TestResults {
         this.deviceInfoMap = new HashMap<>();
         this.testCaseRunMap = new HashMap<>();
         this.testCaseNameMap = new HashMap<>();
+        this.testCaseNames = new ArrayList<>();
         this.logInfoMap = new HashMap<>();
         this.profilingPointNameSet = new HashSet<>();
     }
@@ -126,9 +150,11 @@ public class TestResults {
             TestCaseRunEntity testCaseRunEntity = TestCaseRunEntity.fromEntity(e);
             if (testCaseRunEntity == null) continue;
             testCaseRunMap.get(testRun.getKey()).add(testCaseRunEntity);
-            for (TestCase testCase : testCaseRunEntity.testCases) {
-                if (!testCaseNameMap.containsKey(testCase.name)) {
-                    testCaseNameMap.put(testCase.name, testCaseNameMap.size());
+            for (int i = 0; i < testCaseRunEntity.getTestCaseCount(); i++) {
+                String name = testCaseRunEntity.getTestCaseName(i);
+                if (!testCaseNameMap.containsKey(name)) {
+                    testCaseNameMap.put(name, testCaseNames.size());
+                    testCaseNames.add(name);
                 }
             }
         }
@@ -148,8 +174,8 @@ public class TestResults {
         }
         // Count array for each test result
         for (TestCaseRunEntity testCaseRunEntity : testCaseResults) {
-            for (TestCase testCase : testCaseRunEntity.testCases) {
-                totResultCounts[testCase.result]++;
+            for (int i = 0; i < testCaseRunEntity.getTestCaseCount(); i++) {
+                totResultCounts[testCaseRunEntity.getResult(i)]++;
             }
         }
     }
@@ -225,85 +251,44 @@ public class TestResults {
         testRuns.sort((t1, t2) -> new Long(t2.getStartTimestamp()).compareTo(t1.getStartTimestamp()));
         generateToTBreakdown();
 
-        headerRow = new String[testRuns.size() + 1];
-        headerRow[0] = StringUtils.join(HEADER_NAMES, "<br>");
-
-        summaryGrid = new String[SUMMARY_NAMES.length][testRuns.size() + 1];
-        for (int i = 0; i < SUMMARY_NAMES.length; i++) {
-            summaryGrid[i][0] = "<b>" + SUMMARY_NAMES[i] + "</b>";
-        }
-
-        timeGrid = new String[TIME_INFO_NAMES.length][testRuns.size() + 1];
-        for (int i = 0; i < TIME_INFO_NAMES.length; i++) {
-            timeGrid[i][0] = "<b>" + TIME_INFO_NAMES[i] + "</b>";
-        }
-
-        durationGrid = new String[DURATION_INFO_NAMES.length][testRuns.size() + 1];
-        for (int i = 0; i < DURATION_INFO_NAMES.length; i++) {
-            durationGrid[i][0] = "<b>" + DURATION_INFO_NAMES[i] + "</b>";
-        }
-
-        resultsGrid = new String[testCaseNameMap.size()][testRuns.size() + 1];
-        // first column for results grid
-        for (String testCaseName : testCaseNameMap.keySet()) {
-            resultsGrid[testCaseNameMap.get(testCaseName)][0] = testCaseName;
-        }
+        int columns = testRuns.size();
+        totalCounts = new int[columns];
+        passCounts = new int[columns];
+        nonpassCounts = new int[columns];
+        coveredLineCounts = new long[columns];
+        totalLineCounts = new long[columns];
+        aggregateResults = new byte[columns];
+        resultCodes = new byte[columns][];
+        systraceUrls = new ArrayList<>(columns);
 
         // Iterate through the test runs
-        for (int col = 0; col < testRuns.size(); col++) {
+        for (int col = 0; col < columns; col++) {
             TestRunEntity testRun = testRuns.get(col);
             CodeCoverageEntity codeCoverageEntity = testRun.getCodeCoverageEntity();
 
-            // Process the device information
-            List<DeviceInfoEntity> devices = deviceInfoMap.get(testRun.getKey());
-            List<String> buildIdList = new ArrayList<>();
-            List<String> buildAliasList = new ArrayList<>();
-            List<String> buildFlavorList = new ArrayList<>();
-            List<String> productVariantList = new ArrayList<>();
-            List<String> abiInfoList = new ArrayList<>();
-            for (DeviceInfoEntity deviceInfoEntity : devices) {
-                buildAliasList.add(deviceInfoEntity.getBranch());
-                buildFlavorList.add(deviceInfoEntity.getBuildFlavor());
-                productVariantList.add(deviceInfoEntity.getProduct());
-                buildIdList.add(deviceInfoEntity.getBuildId());
-                String abi = "";
-                String abiName = deviceInfoEntity.getAbiName();
-                String abiBitness = deviceInfoEntity.getAbiBitness();
-                if (abiName.length() > 0) {
-                    abi += abiName;
-                    if (abiBitness.length() > 0) {
-                        abi += " (" + abiBitness + " bit)";
-                    }
-                }
-                abiInfoList.add(abi);
-            }
-
-            String buildAlias = StringUtils.join(buildAliasList, ",");
-            String buildFlavor = StringUtils.join(buildFlavorList, ",");
-            String productVariant = StringUtils.join(productVariantList, ",");
-            String buildIds = StringUtils.join(buildIdList, ",");
-            String abiInfo = StringUtils.join(abiInfoList, ",");
-            String vtsBuildId = testRun.getTestBuildId();
-
             int totalCount = 0;
-            int passCount = (int) testRun.getPassCount();
-            int nonpassCount = (int) testRun.getFailCount();
             TestCaseResult aggregateStatus = TestCaseResult.UNKNOWN_RESULT;
-
-            long totalLineCount = 0;
-            long coveredLineCount = 0;
-            if (testRun.getHasCodeCoverage()) {
-                totalLineCount = codeCoverageEntity.getTotalLineCount();
-                coveredLineCount = codeCoverageEntity.getCoveredLineCount();
-            }
+            byte[] results = new byte[testCaseNames.size()];
+            Arrays.fill(results, NO_RESULT);
+            Map<Integer, String> systraceUrlMap = Collections.emptyMap();
 
             // Process test case results
             for (TestCaseRunEntity testCaseEntity : testCaseRunMap.get(testRun.getKey())) {
+                String systraceUrl = null;
+                if (testCaseEntity.getSystraceUrl() != null) {
+                    String url = testCaseEntity.getSystraceUrl();
+                    LinkDisplay validatedLink = UrlUtil.processUrl(url);
+                    if (validatedLink != null) {
+                        systraceUrl = validatedLink.url;
+                    } else {
+                        logger.log(Level.WARNING, "Invalid systrace URL : " + url);
+                    }
+                }
+
                 // Update the aggregated test run status
-                totalCount += testCaseEntity.testCases.size();
-                for (TestCase testCase : testCaseEntity.testCases) {
-                    int result = testCase.result;
-                    String name = testCase.name;
+                totalCount += testCaseEntity.getTestCaseCount();
+                for (int i = 0; i < testCaseEntity.getTestCaseCount(); i++) {
+                    int result = testCaseEntity.getResult(i);
                     if (result == TestCaseResult.TEST_CASE_RESULT_PASS.getNumber()) {
                         if (aggregateStatus == TestCaseResult.UNKNOWN_RESULT) {
                             aggregateStatus = TestCaseResult.TEST_CASE_RESULT_PASS;
@@ -312,70 +297,29 @@ public class TestResults {
                         aggregateStatus = TestCaseResult.TEST_CASE_RESULT_FAIL;
                     }
 
-                    String systraceUrl = null;
-
-                    if (testCaseEntity.getSystraceUrl() != null) {
-                        String url = testCaseEntity.getSystraceUrl();
-                        LinkDisplay validatedLink = UrlUtil.processUrl(url);
-                        if (validatedLink != null) {
-                            systraceUrl = validatedLink.url;
-                        } else {
-                            logger.log(Level.WARNING, "Invalid systrace URL : " + url);
-                        }
-                    }
-
-                    int index = testCaseNameMap.get(name);
-                    String classNames = "test-case-status ";
-                    String glyph = "";
+                    int index = testCaseNameMap.get(testCaseEntity.getTestCaseName(i));
                     TestCaseResult testCaseResult = TestCaseResult.valueOf(result);
-                    if (testCaseResult != null) classNames += testCaseResult.toString();
-                    else classNames += TestCaseResult.UNKNOWN_RESULT.toString();
-
+                    if (testCaseResult == null) testCaseResult = TestCaseResult.UNKNOWN_RESULT;
+                    results[index] = (byte) testCaseResult.getNumber();
                     if (systraceUrl != null) {
-                        classNames += " width-1";
-                        glyph +=
-                                "<a href=\""
-                                        + systraceUrl
-                                        + "\" "
-                                        + "class=\"waves-effect waves-light btn red right inline-btn\">"
-                                        + "<i class=\"material-icons inline-icon\">info_outline</i></a>";
+                        if (systraceUrlMap.isEmpty()) systraceUrlMap = new HashMap<>();
+                        systraceUrlMap.put(index, systraceUrl);
                     }
-                    resultsGrid[index][col + 1] =
-                            "<div class=\"" + classNames + "\">&nbsp;</div>" + glyph;
                 }
             }
-            String passInfo;
-            try {
-                double passPct =
-                        Math.round((100 * passCount / (passCount + nonpassCount)) * 100f) / 100f;
-                passInfo = Double.toString(passPct) + "%";
-            } catch (ArithmeticException e) {
-                passInfo = " - ";
-            }
 
-            // Process coverage metadata
-            String coverageInfo;
-            String coveragePctInfo;
-            try {
-                double coveragePct =
-                        Math.round((100 * coveredLineCount / totalLineCount) * 100f) / 100f;
-                coveragePctInfo =
-                        Double.toString(coveragePct)
-                                + "%"
-                                + "<a href=\"/show_coverage?testName="
-                                + testName
-                                + "&startTime="
-                                + testRun.getStartTimestamp()
-                                + "\" class=\"waves-effect waves-light btn red right inline-btn\">"
-                                + "<i class=\"material-icons inline-icon\">menu</i></a>";
-                coverageInfo = coveredLineCount + "/" + totalLineCount;
-            } catch (ArithmeticException e) {
-                coveragePctInfo = " - ";
-                coverageInfo = " - ";
+            totalCounts[col] = totalCount;
+            passCounts[col] = (int) testRun.getPassCount();
+            nonpassCounts[col] = (int) testRun.getFailCount();
+            if (testRun.getHasCodeCoverage()) {
+                totalLineCounts[col] = codeCoverageEntity.getTotalLineCount();
+                coveredLineCounts[col] = codeCoverageEntity.getCoveredLineCount();
             }
+            aggregateResults[col] = (byte) aggregateStatus.getNumber();
+            resultCodes[col] = results;
+            systraceUrls.add(systraceUrlMap);
 
             // Process log information
-            String linkSummary = " - ";
             List<String[]> linkEntries = new ArrayList<>();
             logInfoMap.put(Integer.toString(col), linkEntries);
 
@@ -394,58 +338,314 @@ public class TestResults {
                     linkEntries.add(logInfo);
                 }
             }
-            if (linkEntries.size() > 0) {
-                linkSummary = Integer.toString(linkEntries.size());
-                linkSummary +=
-                        "<i class=\"waves-effect waves-light btn red right inline-btn"
-                                + " info-btn material-icons inline-icon\""
-                                + " data-col=\""
-                                + Integer.toString(col)
-                                + "\""
-                                + ">launch</i>";
+        }
+
+        profilingPointNames =
+                profilingPointNameSet.toArray(new String[profilingPointNameSet.size()]);
+        Arrays.sort(profilingPointNames);
+    }
+
+    /**
+     * Get the HTML content of a results grid cell.
+     *
+     * @param result The test case result.
+     * @param systraceUrl The validated systrace link of the test case, or null if there is none.
+     * @return The HTML content of the cell.
+     */
+    private static String getResultCell(TestCaseResult result, String systraceUrl) {
+        String classNames = "test-case-status " + result.toString();
+        String glyph = "";
+        if (systraceUrl != null) {
+            classNames += " width-1";
+            glyph +=
+                    "<a href=\""
+                            + systraceUrl
+                            + "\" "
+                            + "class=\"waves-effect waves-light btn red right inline-btn\">"
+                            + "<i class=\"material-icons inline-icon\">info_outline</i></a>";
+        }
+        return "<div class=\"" + classNames + "\">&nbsp;</div>" + glyph;
+    }
+
+    /** Writes one table section to a JSON writer. */
+    private interface GridWriter {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    /**
+     * Render a table section as a JSON string.
+     *
+     * @param gridWriter The writer of the table section.
+     * @return The JSON string, escaped for inclusion in an HTML page.
+     */
+    private static String toJson(GridWriter gridWriter) {
+        StringWriter stringWriter = new StringWriter();
+        JsonWriter writer = new JsonWriter(stringWriter);
+        writer.setHtmlSafe(true);
+        try {
+            gridWriter.write(writer);
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    /**
+     * Write the row displayed above the test results table, describing the devices of each run.
+     *
+     * @param writer The JSON writer to which the row is written as an array of HTML strings.
+     */
+    public void writeHeaderRow(JsonWriter writer) throws IOException {
+        writer.beginArray();
+        writer.value(StringUtils.join(HEADER_NAMES, "<br>"));
+        for (int col = 0; col < testRuns.size(); col++) {
+            TestRunEntity testRun = testRuns.get(col);
+            List<DeviceInfoEntity> devices = deviceInfoMap.get(testRun.getKey());
+            List<String> buildIdList = new ArrayList<>();
+            List<String> buildAliasList = new ArrayList<>();
+            List<String> buildFlavorList = new ArrayList<>();
+            List<String> productVariantList = new ArrayList<>();
+            List<String> abiInfoList = new ArrayList<>();
+            for (DeviceInfoEntity deviceInfoEntity : devices) {
+                buildAliasList.add(deviceInfoEntity.getBranch());
+                buildFlavorList.add(deviceInfoEntity.getBuildFlavor());
+                productVariantList.add(deviceInfoEntity.getProduct());
+                buildIdList.add(deviceInfoEntity.getBuildId());
+                String abi = "";
+                String abiName = deviceInfoEntity.getAbiName();
+                String abiBitness = deviceInfoEntity.getAbiBitness();
+                if (abiName.length() > 0) {
+                    abi += abiName;
+                    if (abiBitness.length() > 0) {
+                        abi += " (" + abiBitness + " bit)";
+                    }
+                }
+                abiInfoList.add(abi);
             }
 
+            TestCaseResult aggregateStatus = TestCaseResult.valueOf(aggregateResults[col]);
             String icon = "<div class='status-icon " + aggregateStatus.toString() + "'>&nbsp</div>";
-            String hostname = testRun.getHostName();
-
-            // Populate the header row
-            headerRow[col + 1] =
+            writer.value(
                     "<span class='valign-wrapper'><b>"
-                            + buildIds
+                            + StringUtils.join(buildIdList, ",")
                             + "</b>"
                             + icon
                             + "</span>"
-                            + buildAlias
+                            + StringUtils.join(buildAliasList, ",")
                             + "<br>"
-                            + buildFlavor
+                            + StringUtils.join(buildFlavorList, ",")
                             + "<br>"
-                            + productVariant
+                            + StringUtils.join(productVariantList, ",")
                             + "<br>"
-                            + abiInfo
+                            + StringUtils.join(abiInfoList, ",")
                             + "<br>"
-                            + vtsBuildId
+                            + testRun.getTestBuildId()
                             + "<br>"
-                            + hostname;
-
-            // Populate the test summary grid
-            summaryGrid[0][col + 1] = Integer.toString(totalCount);
-            summaryGrid[1][col + 1] = Integer.toString(passCount);
-            summaryGrid[2][col + 1] = Integer.toString(nonpassCount);
-            summaryGrid[3][col + 1] = passInfo;
-            summaryGrid[4][col + 1] = coverageInfo;
-            summaryGrid[5][col + 1] = coveragePctInfo;
-            summaryGrid[6][col + 1] = linkSummary;
-
-            // Populate the test time info grid
-            timeGrid[0][col + 1] = Long.toString(testRun.getStartTimestamp());
-            timeGrid[1][col + 1] = Long.toString(testRun.getEndTimestamp());
-
-            // Populate the test duration info grid
-            durationGrid[0][col + 1] = Long.toString(testRun.getEndTimestamp() - testRun.getStartTimestamp());
+                            + testRun.getHostName());
         }
+        writer.endArray();
+    }
 
-        profilingPointNames =
-                profilingPointNameSet.toArray(new String[profilingPointNameSet.size()]);
-        Arrays.sort(profilingPointNames);
+    /**
+     * Write the grid of test run start and end timestamps, to render as dates.
+     *
+     * @param writer The JSON writer to which the grid is written as an array of rows.
+     */
+    public void writeTimeGrid(JsonWriter writer) throws IOException {
+        writer.beginArray();
+        for (int row = 0; row < TIME_INFO_NAMES.length; row++) {
+            writer.beginArray();
+            writer.value("<b>" + TIME_INFO_NAMES[row] + "</b>");
+            for (TestRunEntity testRun : testRuns) {
+                long time = row == 0 ? testRun.getStartTimestamp() : testRun.getEndTimestamp();
+                writer.value(Long.toString(time));
+            }
+            writer.endArray();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Write the grid of test run durations, to render as time intervals.
+     *
+     * @param writer The JSON writer to which the grid is written as an array of rows.
+     */
+    public void writeDurationGrid(JsonWriter writer) throws IOException {
+        writer.beginArray();
+        writer.beginArray();
+        writer.value("<b>" + DURATION_INFO_NAMES[0] + "</b>");
+        for (TestRunEntity testRun : testRuns) {
+            writer.value(Long.toString(testRun.getEndTimestamp() - testRun.getStartTimestamp()));
+        }
+        writer.endArray();
+        writer.endArray();
+    }
+
+    /**
+     * Write the grid summarizing the results, coverage, and logs of each test run.
+     *
+     * @param writer The JSON writer to which the grid is written as an array of rows.
+     */
+    public void writeSummaryGrid(JsonWriter writer) throws IOException {
+        writer.beginArray();
+        for (int row = 0; row < SUMMARY_NAMES.length; row++) {
+            writer.beginArray();
+            writer.value("<b>" + SUMMARY_NAMES[row] + "</b>");
+            for (int col = 0; col < testRuns.size(); col++) {
+                writer.value(getSummaryCell(row, col));
+            }
+            writer.endArray();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Get the content of a summary grid cell.
+     *
+     * @param row The index of the summary row, in the order of SUMMARY_NAMES.
+     * @param col The index of the test run.
+     * @return The HTML content of the cell.
+     */
+    private String getSummaryCell(int row, int col) {
+        int passCount = passCounts[col];
+        int nonpassCount = nonpassCounts[col];
+        long coveredLineCount = coveredLineCounts[col];
+        long totalLineCount = totalLineCounts[col];
+        switch (row) {
+            case 0:
+                return Integer.toString(totalCounts[col]);
+            case 1:
+                return Integer.toString(passCount);
+            case 2:
+                return Integer.toString(nonpassCount);
+            case 3:
+                try {
+                    double passPct =
+                            Math.round((100 * passCount / (passCount + nonpassCount)) * 100f)
+                                    / 100f;
+                    return Double.toString(passPct) + "%";
+                } catch (ArithmeticException e) {
+                    return " - ";
+                }
+            case 4:
+                if (totalLineCount == 0) return " - ";
+                return coveredLineCount + "/" + totalLineCount;
+            case 5:
+                try {
+                    double coveragePct =
+                            Math.round((100 * coveredLineCount / totalLineCount) * 100f) / 100f;
+                    return Double.toString(coveragePct)
+                            + "%"
+                            + "<a href=\"/show_coverage?testName="
+                            + testName
+                            + "&startTime="
+                            + testRuns.get(col).getStartTimestamp()
+                            + "\" class=\"waves-effect waves-light btn red right inline-btn\">"
+                            + "<i class=\"material-icons inline-icon\">menu</i></a>";
+                } catch (ArithmeticException e) {
+                    return " - ";
+                }
+            default:
+                int linkCount = logInfoMap.get(Integer.toString(col)).size();
+                if (linkCount == 0) return " - ";
+                return Integer.toString(linkCount)
+                        + "<i class=\"waves-effect waves-light btn red right inline-btn"
+                        + " info-btn material-icons inline-icon\""
+                        + " data-col=\""
+                        + Integer.toString(col)
+                        + "\""
+                        + ">launch</i>";
+        }
+    }
+
+    /**
+     * Write one test case row of the results grid, with one cell per run.
+     *
+     * <p>Cells of the same result share one HTML fragment, so the size of the grid only costs the
+     * output written and not a string per cell.
+     *
+     * @param writer The JSON writer to which the row is written as an array of HTML strings.
+     * @param row The index of the test case.
+     */
+    private void writeResultsRow(JsonWriter writer, int row) throws IOException {
+        writer.beginArray();
+        writer.value(testCaseNames.get(row));
+        for (int col = 0; col < resultCodes.length; col++) {
+            byte result = resultCodes[col][row];
+            if (result == NO_RESULT) {
+                writer.nullValue();
+                continue;
+            }
+            String systraceUrl = systraceUrls.get(col).get(row);
+            if (systraceUrl == null) {
+                writer.value(RESULT_CELLS[result]);
+            } else {
+                writer.value(getResultCell(TestCaseResult.valueOf(result), systraceUrl));
+            }
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Get the header row as a JSON array.
+     *
+     * @return The JSON string, escaped for inclusion in an HTML page.
+     */
+    public String getHeaderRowJson() {
+        return toJson(this::writeHeaderRow);
+    }
+
+    /**
+     * Get the time grid as a JSON array of rows.
+     *
+     * @return The JSON string, escaped for inclusion in an HTML page.
+     */
+    public String getTimeGridJson() {
+        return toJson(this::writeTimeGrid);
+    }
+
+    /**
+     * Get the duration grid as a JSON array of rows.
+     *
+     * @return The JSON string, escaped for inclusion in an HTML page.
+     */
+    public String getDurationGridJson() {
+        return toJson(this::writeDurationGrid);
+    }
+
+    /**
+     * Get the summary grid as a JSON array of rows.
+     *
+     * @return The JSON string, escaped for inclusion in an HTML page.
+     */
+    public String getSummaryGridJson() {
+        return toJson(this::writeSummaryGrid);
+    }
+
+    /**
+     * Get the rows of the results grid, each rendered as a JSON array only when it is reached.
+     *
+     * <p>A page iterating the rows into its output never builds the whole grid as one string. The
+     * runtime still buffers the complete response before sending it.
+     *
+     * @return An iterator over the JSON arrays of the results grid rows.
+     */
+    public Iterator<String> getResultsRows() {
+        return new Iterator<String>() {
+            private int row = 0;
+
+            @Override
+            public boolean hasNext() {
+                return row < testCaseNames.size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                int index = row++;
+                return toJson(writer -> writeResultsRow(writer, index));
+            }
+        };
     }
 }
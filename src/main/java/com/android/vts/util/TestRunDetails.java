@@ -17,7 +17,6 @@
 package com.android.vts.util;
 
 import com.android.vts.entity.TestCaseRunEntity;
-import com.android.vts.entity.TestCaseRunEntity.TestCase;
 import com.android.vts.proto.VtsReportMessage.TestCaseResult;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
@@ -73,13 +72,13 @@ public class TestRunDetails {
      * @param testCaseEntity The TestCaseRunEntity object storing test case results.
      */
     public void addTestCase(TestCaseRunEntity testCaseEntity) {
-        for (TestCase testCase : testCaseEntity.getTestCases()) {
-            int result = testCase.result;
+        for (int i = 0; i < testCaseEntity.getTestCaseCount(); i++) {
+            int result = testCaseEntity.getResult(i);
             if (result > resultCounts.length)
                 continue;
             ++resultCounts[result];
             ResultColumn column = columns[result];
-            column.add(testCase.name);
+            column.add(testCaseEntity.getTestCaseName(i));
         }
     }
 
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import com.android.vts.util.FilterUtil.FilterKey;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.gson.Gson;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * UserFilter, the search filters of a page compiled from its URL parameters.
+ *
+ * <p>Parameters are parsed and validated once, and the compiled filter is cached by the string
+ * form of the parameters it was built from. The same instance then provides the datastore filters
+ * on runs and devices and the canonical values written back to the page for its links, so the
+ * query and the links can't interpret a parameter differently.
+ */
+public class UserFilter {
+
+    /** The maximum number of compiled filters held before the cache is reset. */
+    private static final int MAX_CACHED_FILTERS = 1000;
+
+    private static final Map<SortedMap<String, String>, UserFilter> cache =
+            new ConcurrentHashMap<>();
+
+    private static final UserFilter EMPTY = new UserFilter(new TreeMap<>());
+
+    /** The canonical value of each valid parameter, by parameter name. */
+    private final SortedMap<String, String> values;
+
+    private final List<Filter> testFilters;
+    private final Filter deviceFilter;
+
+    private UserFilter(SortedMap<String, String> rawValues) {
+        SortedMap<String, String> canonicalValues = new TreeMap<>();
+        List<Filter> testFilterList = new ArrayList<>();
+        List<Filter> deviceFilterList = new ArrayList<>();
+        for (Map.Entry<String, String> entry : rawValues.entrySet()) {
+            FilterKey filterKey = FilterKey.parse(entry.getKey());
+            String value = entry.getValue().trim();
+            FilterPredicate filter;
+            switch (filterKey) {
+                case NONPASSING:
+                case PASSING:
+                    filter = filterKey.getFilterForNumber(value);
+                    if (filter == null) {
+                        continue;
+                    }
+                    value = getNumberString(filter);
+                    break;
+                case HOSTNAME:
+                case VTS_BUILD_ID:
+                    value = value.toLowerCase();
+                    filter = filterKey.getFilterForString(value);
+                    break;
+                default:
+                    filter = filterKey.getFilterForString(value);
+                    break;
+            }
+            canonicalValues.put(entry.getKey(), value);
+            if (FilterKey.isDeviceKey(entry.getKey())) {
+                deviceFilterList.add(filter);
+            } else {
+                testFilterList.add(filter);
+            }
+        }
+        this.values = Collections.unmodifiableSortedMap(canonicalValues);
+        this.testFilters = Collections.unmodifiableList(testFilterList);
+        if (deviceFilterList.isEmpty()) {
+            this.deviceFilter = null;
+        } else if (deviceFilterList.size() == 1) {
+            this.deviceFilter = deviceFilterList.get(0);
+        } else {
+            this.deviceFilter = CompositeFilterOperator.and(deviceFilterList);
+        }
+    }
+
+    /** Format a number filter the way a user would type it, such as ">=5". */
+    private static String getNumberString(FilterPredicate filter) {
+        String operator;
+        switch (filter.getOperator()) {
+            case LESS_THAN:
+                operator = "<";
+                break;
+            case LESS_THAN_OR_EQUAL:
+                operator = "<=";
+                break;
+            case GREATER_THAN:
+                operator = ">";
+                break;
+            case GREATER_THAN_OR_EQUAL:
+                operator = ">=";
+                break;
+            default:
+                operator = "";
+                break;
+        }
+        return operator + filter.getValue();
+    }
+
+    /**
+     * Compile the search filters in a page's parameters.
+     *
+     * @param parameterMap The key-value map of url parameters.
+     * @return The compiled filter, shared with other requests having the same filter parameters.
+     */
+    public static UserFilter compile(Map<String, String[]> parameterMap) {
+        SortedMap<String, String> rawValues = new TreeMap<>();
+        for (Map.Entry<String, String[]> entry : parameterMap.entrySet()) {
+            String key = entry.getKey();
+            if (!FilterKey.isDeviceKey(key) && !FilterKey.isTestKey(key)) continue;
+            String[] parameterValues = entry.getValue();
+            if (parameterValues == null || parameterValues.length == 0) continue;
+            rawValues.put(key, parameterValues[0]);
+        }
+        if (rawValues.isEmpty()) {
+            return EMPTY;
+        }
+
+        // The map itself is the key, since its string form is ambiguous for values with commas.
+        UserFilter userFilter = cache.get(rawValues);
+        if (userFilter == null) {
+            if (cache.size() >= MAX_CACHED_FILTERS) {
+                cache.clear();
+            }
+            userFilter = new UserFilter(rawValues);
+            cache.put(rawValues, userFilter);
+        }
+        return userFilter;
+    }
+
+    /**
+     * Get the filters on test runs, each having at most one inequality filter.
+     *
+     * @return A new list of filters, which the caller may add to.
+     */
+    public List<Filter> getTestFilters() {
+        return new ArrayList<>(this.testFilters);
+    }
+
+    /**
+     * Get the filter on the devices of each run.
+     *
+     * @return The filter on devices, or null if there is none.
+     */
+    public Filter getDeviceFilter() {
+        return this.deviceFilter;
+    }
+
+    /**
+     * Get the canonical values of the valid filter parameters.
+     *
+     * @return A map from parameter name to its canonical value.
+     */
+    public Map<String, String> getValues() {
+        return this.values;
+    }
+
+    /**
+     * Set the canonical filter values as request attributes, from which the page builds its links.
+     *
+     * @param request The request whose attributes to set.
+     */
+    public void setAttributes(HttpServletRequest request) {
+        Gson gson = new Gson();
+        for (Map.Entry<String, String> entry : this.values.entrySet()) {
+            request.setAttribute(entry.getKey(), gson.toJson(entry.getValue()));
+        }
+    }
+
+    /** Get the canonical string form, such as "branch=master&passing=>=5". */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : this.values.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append('&');
+            }
+            builder.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return builder.toString();
+    }
+}
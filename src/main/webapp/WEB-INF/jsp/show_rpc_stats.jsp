@@ -0,0 +1,84 @@
+<%--
+  ~ Copyright (c) 2019 Google Inc. All Rights Reserved.
+  ~
+  ~ Licensed under the Apache License, Version 2.0 (the "License"); you
+  ~ may not use this file except in compliance with the License. You may
+  ~ obtain a copy of the License at
+  ~
+  ~     http://www.apache.org/licenses/LICENSE-2.0
+  ~
+  ~ Unless required by applicable law or agreed to in writing, software
+  ~ distributed under the License is distributed on an "AS IS" BASIS,
+  ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+  ~ implied. See the License for the specific language governing
+  ~ permissions and limitations under the License.
+  --%>
+<%@ page contentType='text/html;charset=UTF-8' language='java' %>
+<%@ taglib prefix='fn' uri='http://java.sun.com/jsp/jstl/functions' %>
+<%@ taglib prefix='c' uri='http://java.sun.com/jsp/jstl/core'%>
+
+<html>
+  <%@ include file="header.jsp" %>
+  <script src='https://www.gstatic.com/external_hosted/moment/min/moment-with-locales.min.js'></script>
+  <body>
+    <script type='text/javascript'>
+        $(function() {
+            $('.time-label').each(function(i) {
+                var label = $(this);
+                label.html(moment(parseInt(label.html())).format('M/D/YY H:mm:ss'));
+            });
+        });
+    </script>
+    <div class='wide container'>
+      <div class='row card'>
+        <div class='col s12'>
+          <h4>Slow Requests</h4>
+          <p>
+            Only a sample of requests is recorded, and only while rpcAccounting.enabled is set.
+            Calls through the low level datastore API record no entity counts.
+          </p>
+        </div>
+      </div>
+      <c:if test='${empty slowRequests}'>
+        <div class='row card'>
+          <div class='col s12'>No slow requests recorded by this instance.</div>
+        </div>
+      </c:if>
+      <c:forEach items='${slowRequests}' var='slowRequest'>
+        <div class='row card'>
+          <div class='col s12'>
+            <h5 class='truncate'>${fn:escapeXml(slowRequest.name)}</h5>
+            <span class='time-label'>${slowRequest.startTime}</span>:
+            ${slowRequest.elapsedMillis} ms,
+            ${slowRequest.totalCalls} datastore calls,
+            ${slowRequest.totalEntities} entities,
+            ${slowRequest.totalMillis} ms in datastore
+          </div>
+          <table class='col s12 striped'>
+            <thead>
+              <tr>
+                <th>Calls</th>
+                <th>Method</th>
+                <th>Query shape and code location</th>
+                <th>Entities</th>
+                <th>Time (ms)</th>
+              </tr>
+            </thead>
+            <tbody>
+              <c:forEach items='${slowRequest.calls}' var='call'>
+                <tr>
+                  <td>${call.calls}</td>
+                  <td>${call.method}</td>
+                  <td>${fn:escapeXml(call.shape)}</td>
+                  <td>${call.entities}</td>
+                  <td>${call.millis}</td>
+                </tr>
+              </c:forEach>
+            </tbody>
+          </table>
+        </div>
+      </c:forEach>
+    </div>
+    <%@ include file="footer.jsp" %>
+  </body>
+</html>
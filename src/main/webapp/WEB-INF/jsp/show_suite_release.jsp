@@ -321,10 +321,31 @@
           </c:if>
         <div class="col s12 center-align">
           <ul class="pagination">
+          <c:choose>
+          <c:when test="${testSuiteResultEntityPagination.keyset}">
+            <c:if test="${page gt 1}">
+              <li class="waves-effect">
+                  <a href="${requestScope['javax.servlet.forward.servlet_path']}?plan=${plan}&type=${testType}&testCategoryType=${testCategoryType}&page=${page - 1}<c:if test="${testSuiteResultEntityPagination.previousPageCountToken ne ''}">&nextPageToken=${testSuiteResultEntityPagination.previousPageCountToken}&pageTokens=${testSuiteResultEntityPagination.previousPageTokens}</c:if>${searchQueryString}">
+                      <i class="material-icons">chevron_left</i>
+                  </a>
+              </li>
+            </c:if>
+            <li class="waves-effect active">
+                <a href="#!"><c:out value="${page}" /></a>
+            </li>
+            <c:if test="${testSuiteResultEntityPagination.nextPageAvailable}">
+              <li class="waves-effect">
+                  <a href="${requestScope['javax.servlet.forward.servlet_path']}?plan=${plan}&type=${testType}&testCategoryType=${testCategoryType}&page=${page + 1}&nextPageToken=${testSuiteResultEntityPagination.nextPageCountToken}&pageTokens=${testSuiteResultEntityPagination.nextPageTokens}${searchQueryString}">
+                      <i class="material-icons">chevron_right</i>
+                  </a>
+              </li>
+            </c:if>
+          </c:when>
+          <c:otherwise>
             <c:choose>
                 <c:when test="${testSuiteResultEntityPagination.minPageRange gt testSuiteResultEntityPagination.pageSize}">
                     <li class="waves-effect">
-                        <a href="${requestScope['javax.servlet.forward.servlet_path']}?plan=${plan}&type=${testType}&testCategoryType=${testCategoryType}&page=${testSuiteResultEntityPagination.minPageRange - 1}&nextPageToken=${testSuiteResultEntityPagination.previousPageCountToken}${searchQueryString}">
+                        <a href="${requestScope['javax.servlet.forward.servlet_path']}?plan=${plan}&type=${testType}&testCategoryType=${testCategoryType}&page=${testSuiteResultEntityPagination.minPageRange - 1}&nextPageToken=${testSuiteResultEntityPagination.previousPageCountToken}&pageTokens=${testSuiteResultEntityPagination.previousPageTokens}${searchQueryString}">
                             <i class="material-icons">chevron_left</i>
                         </a>
                     </li>
@@ -335,7 +356,7 @@
             </c:choose>
             <c:forEach var="pageLoop" begin="${testSuiteResultEntityPagination.minPageRange}" end="${testSuiteResultEntityPagination.maxPageRange}">
               <li class="waves-effect<c:if test="${pageLoop eq page}"> active</c:if>">
-                  <a href="${requestScope['javax.servlet.forward.servlet_path']}?plan=${plan}&type=${testType}&testCategoryType=${testCategoryType}&page=${pageLoop}<c:if test="${testSuiteResultEntityPagination.currentPageCountToken ne ''}">&nextPageToken=${testSuiteResultEntityPagination.currentPageCountToken}</c:if>${searchQueryString}">
+                  <a href="${requestScope['javax.servlet.forward.servlet_path']}?plan=${plan}&type=${testType}&testCategoryType=${testCategoryType}&page=${pageLoop}<c:if test="${testSuiteResultEntityPagination.currentPageCountToken ne ''}">&nextPageToken=${testSuiteResultEntityPagination.currentPageCountToken}&pageTokens=${testSuiteResultEntityPagination.pageTokens}</c:if>${searchQueryString}">
                       <c:out value="${pageLoop}" />
                   </a>
               </li>
@@ -343,7 +364,7 @@
             <c:choose>
                 <c:when test="${testSuiteResultEntityPagination.maxPages gt testSuiteResultEntityPagination.pageSize}">
                     <li class="waves-effect">
-                        <a href="${requestScope['javax.servlet.forward.servlet_path']}?plan=${plan}&type=${testType}&testCategoryType=${testCategoryType}&page=${testSuiteResultEntityPagination.maxPageRange + 1}&nextPageToken=${testSuiteResultEntityPagination.nextPageCountToken}${searchQueryString}">
+                        <a href="${requestScope['javax.servlet.forward.servlet_path']}?plan=${plan}&type=${testType}&testCategoryType=${testCategoryType}&page=${testSuiteResultEntityPagination.maxPageRange + 1}&nextPageToken=${testSuiteResultEntityPagination.nextPageCountToken}&pageTokens=${testSuiteResultEntityPagination.nextPageTokens}${searchQueryString}">
                             <i class="material-icons">chevron_right</i>
                         </a>
                     </li>
@@ -352,6 +373,8 @@
 
                 </c:otherwise>
             </c:choose>
+          </c:otherwise>
+          </c:choose>
           </ul>
         </div>
       </div>
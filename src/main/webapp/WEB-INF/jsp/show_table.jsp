@@ -192,7 +192,12 @@
           var timeGrid = ${timeGrid};
           var durationGrid = ${durationGrid};
           var summaryGrid = ${summaryGrid};
-          var resultsGrid = ${resultsGrid};
+          // Rows are written into the page one at a time, not joined into one string first.
+          var resultsGrid = [
+            <c:forEach items='${resultsRows}' var='row' varStatus='rowLoop'>
+              ${row}<c:if test='${!rowLoop.last}'>,</c:if>
+            </c:forEach>
+          ];
 
           // Format time grid to a formatted date
           timeGrid = timeGrid.map(function(row) {
@@ -67,7 +67,12 @@
           });
           $('#newer-button').click(prev);
           $('#older-button').click(next);
-          $('#test-results-container').showTests(${testRuns});
+          // Runs are written into the page one at a time, not joined into one string first.
+          $('#test-results-container').showTests([
+            <c:forEach items='${testRuns}' var='testRun' varStatus='runLoop'>
+              ${testRun}<c:if test='${!runLoop.last}'>,</c:if>
+            </c:forEach>
+          ]);
 
           $('#apiCoverageModal').modal({
                   width: '75%',
@@ -0,0 +1,491 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.api;
+
+import static com.googlecode.objectify.ObjectifyService.factory;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.android.vts.entity.ApiCoverageEntity;
+import com.android.vts.entity.BranchEntity;
+import com.android.vts.entity.BuildTargetEntity;
+import com.android.vts.entity.CodeCoverageEntity;
+import com.android.vts.entity.CoverageEntity;
+import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.DictionaryEntity;
+import com.android.vts.entity.HalApiEntity;
+import com.android.vts.entity.ProfilingPointRunEntity;
+import com.android.vts.entity.RunBucketEntity;
+import com.android.vts.entity.TestCaseRunEntity;
+import com.android.vts.entity.TestEntity;
+import com.android.vts.entity.TestPlanEntity;
+import com.android.vts.entity.TestPlanRunEntity;
+import com.android.vts.entity.TestRunEntity;
+import com.android.vts.entity.UploadLedgerEntity;
+import com.android.vts.entity.UploadLedgerEntity.ClaimResult;
+import com.android.vts.proto.VtsReportMessage.AndroidBuildInfo;
+import com.android.vts.proto.VtsReportMessage.AndroidDeviceInfoMessage;
+import com.android.vts.proto.VtsReportMessage.DashboardPostMessage;
+import com.android.vts.proto.VtsReportMessage.ProfilingReportMessage;
+import com.android.vts.proto.VtsReportMessage.TestCaseReportMessage;
+import com.android.vts.proto.VtsReportMessage.TestCaseResult;
+import com.android.vts.proto.VtsReportMessage.TestPlanReportMessage;
+import com.android.vts.proto.VtsReportMessage.TestReportMessage;
+import com.android.vts.proto.VtsReportMessage.VtsHostInfo;
+import com.android.vts.proto.VtsReportMessage.VtsProfilingRegressionMode;
+import com.android.vts.proto.VtsReportMessage.VtsProfilingType;
+import com.android.vts.util.ObjectifyTestBase;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.PathElement;
+import com.google.protobuf.ByteString;
+import com.googlecode.objectify.ObjectifyFactory;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Load test driving generated reports concurrently through the DatastoreRestServlet ingestion
+ * path against the local datastore.
+ *
+ * <p>Calls through Objectify and through the low-level DatastoreService are both counted. The
+ * two APIs read one store in production, but the local emulator and the low-level stub are
+ * separate, so device infos written through Objectify are copied to the stub for the test plan
+ * reports to read.
+ *
+ * <p>A small configuration runs with the unit tests. Larger runs are configured with the system
+ * properties vts.loadTest.messages, vts.loadTest.threads, vts.loadTest.modules,
+ * vts.loadTest.testCases, vts.loadTest.profilingPoints and vts.loadTest.profilingValues.
+ */
+@Slf4j
+public class DatastoreRestServletLoadTest extends ObjectifyTestBase {
+
+    /** The Datastore methods which issue a remote call. */
+    private static final Set<String> RPC_METHODS =
+            new HashSet<>(
+                    Arrays.asList(
+                            "get",
+                            "fetch",
+                            "run",
+                            "put",
+                            "add",
+                            "update",
+                            "delete",
+                            "allocateId",
+                            "reserveIds",
+                            "newTransaction",
+                            "runInTransaction"));
+
+    private static final long BASE_TIMESTAMP = 1500000000000000L;
+
+    /** The default maximum number of entities the servlets save in one batch */
+    private static final int MAX_ENTITY_SIZE = 300;
+
+    private final int messageCount = Integer.getInteger("vts.loadTest.messages", 8);
+    private final int threadCount = Integer.getInteger("vts.loadTest.threads", 4);
+    private final int moduleCount = Integer.getInteger("vts.loadTest.modules", 3);
+    private final int testCaseCount = Integer.getInteger("vts.loadTest.testCases", 50);
+    private final int profilingPointCount = Integer.getInteger("vts.loadTest.profilingPoints", 2);
+    private final int profilingValueCount =
+            Integer.getInteger("vts.loadTest.profilingValues", 100);
+
+    /** The ApiProxy package of the low-level datastore calls. */
+    private static final String DATASTORE_PACKAGE = "datastore_v3";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(
+                    new LocalDatastoreServiceTestConfig(),
+                    new LocalMemcacheServiceTestConfig(),
+                    new LocalTaskQueueTestConfig()
+                            .setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml"));
+
+    private final Map<String, AtomicLong> rpcCounts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> lowLevelRpcCounts = new ConcurrentHashMap<>();
+
+    /** Set while a write is copied to the low-level stub, which is not counted. */
+    private final ThreadLocal<Boolean> copying = ThreadLocal.withInitial(() -> false);
+
+    private ApiProxy.Environment environment;
+
+    private Closeable rootService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        helper.setUp();
+        environment = ApiProxy.getCurrentEnvironment();
+
+        // Count the low-level datastore calls made through the ApiProxy.
+        ApiProxy.Delegate<ApiProxy.Environment> delegate = ApiProxy.getDelegate();
+        ApiProxy.setDelegate(
+                (ApiProxy.Delegate<ApiProxy.Environment>)
+                        Proxy.newProxyInstance(
+                                ApiProxy.Delegate.class.getClassLoader(),
+                                new Class<?>[] {ApiProxy.Delegate.class},
+                                (proxy, method, args) -> {
+                                    if (method.getName().startsWith("make")
+                                            && DATASTORE_PACKAGE.equals(args[1])
+                                            && !copying.get()) {
+                                        lowLevelRpcCounts
+                                                .computeIfAbsent(
+                                                        (String) args[2], k -> new AtomicLong())
+                                                .incrementAndGet();
+                                    }
+                                    try {
+                                        return method.invoke(delegate, args);
+                                    } catch (InvocationTargetException e) {
+                                        throw e.getCause();
+                                    }
+                                }));
+
+        // Route Objectify through a Datastore which counts the calls made on it.
+        Datastore datastore = factory().datastore();
+        Datastore countingDatastore =
+                (Datastore)
+                        Proxy.newProxyInstance(
+                                Datastore.class.getClassLoader(),
+                                new Class<?>[] {Datastore.class},
+                                (proxy, method, args) -> {
+                                    if (RPC_METHODS.contains(method.getName())) {
+                                        rpcCounts
+                                                .computeIfAbsent(
+                                                        method.getName(), k -> new AtomicLong())
+                                                .incrementAndGet();
+                                    }
+                                    if (method.getName().equals("put")
+                                            || method.getName().equals("add")) {
+                                        copyDeviceInfos(args);
+                                    }
+                                    try {
+                                        return method.invoke(datastore, args);
+                                    } catch (InvocationTargetException e) {
+                                        throw e.getCause();
+                                    }
+                                });
+        ObjectifyService.init(new ObjectifyFactory(countingDatastore));
+        rootService = ObjectifyService.begin();
+
+        factory().register(ApiCoverageEntity.class);
+        factory().register(BranchEntity.class);
+        factory().register(BuildTargetEntity.class);
+        factory().register(CodeCoverageEntity.class);
+        factory().register(CoverageEntity.class);
+        factory().register(DeviceInfoEntity.class);
+        factory().register(DictionaryEntity.class);
+        factory().register(HalApiEntity.class);
+        factory().register(ProfilingPointRunEntity.class);
+        factory().register(RunBucketEntity.class);
+        factory().register(TestCaseRunEntity.class);
+        factory().register(TestEntity.class);
+        factory().register(TestPlanEntity.class);
+        factory().register(TestPlanRunEntity.class);
+        factory().register(TestRunEntity.class);
+        factory().register(UploadLedgerEntity.class);
+    }
+
+    /** Copy the device infos among the entities of a put to the low-level datastore stub. */
+    private void copyDeviceInfos(Object[] args) {
+        List<Entity> devices = new ArrayList<>();
+        for (Object arg : args) {
+            List<Object> entities = new ArrayList<>();
+            if (arg instanceof Object[]) {
+                entities.addAll(Arrays.asList((Object[]) arg));
+            } else {
+                entities.add(arg);
+            }
+            for (Object entity : entities) {
+                if (entity instanceof FullEntity
+                        && ((FullEntity<?>) entity).getKey() instanceof Key
+                        && DeviceInfoEntity.KIND.equals(
+                                ((FullEntity<?>) entity).getKey().getKind())) {
+                    devices.add(toLowLevelEntity((FullEntity<?>) entity));
+                }
+            }
+        }
+        if (devices.isEmpty()) {
+            return;
+        }
+        if (ApiProxy.getCurrentEnvironment() == null) {
+            ApiProxy.setEnvironmentForCurrentThread(environment);
+        }
+        copying.set(true);
+        try {
+            DatastoreServiceFactory.getDatastoreService().put(devices);
+        } finally {
+            copying.set(false);
+        }
+    }
+
+    private static Entity toLowLevelEntity(FullEntity<?> entity) {
+        Key key = (Key) entity.getKey();
+        com.google.appengine.api.datastore.Key parent = null;
+        for (PathElement element : key.getAncestors()) {
+            parent =
+                    element.hasId()
+                            ? KeyFactory.createKey(parent, element.getKind(), element.getId())
+                            : KeyFactory.createKey(parent, element.getKind(), element.getName());
+        }
+        Entity lowLevelEntity =
+                key.hasId()
+                        ? new Entity(KeyFactory.createKey(parent, key.getKind(), key.getId()))
+                        : new Entity(KeyFactory.createKey(parent, key.getKind(), key.getName()));
+        for (String name : entity.getNames()) {
+            Object value = entity.getValue(name).get();
+            // Device infos only hold strings which the plan report reads.
+            if (value instanceof String) {
+                lowLevelEntity.setProperty(name, value);
+            }
+        }
+        return lowLevelEntity;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        rootService.close();
+        helper.tearDown();
+    }
+
+    /** Measure the throughput of concurrent uploads and check that every report was saved. */
+    @Test
+    public void testConcurrentIngestion() throws Exception {
+        List<DashboardPostMessage> messages = new ArrayList<>();
+        for (int i = 0; i < messageCount; i++) {
+            messages.add(createPostMessage(i));
+        }
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        rpcCounts.clear();
+        lowLevelRpcCounts.clear();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        long start = System.nanoTime();
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (DashboardPostMessage message : messages) {
+            results.add(
+                    executor.submit(
+                            () -> {
+                                ApiProxy.setEnvironmentForCurrentThread(environment);
+                                return ObjectifyService.run(
+                                        () -> {
+                                            long messageStart = System.nanoTime();
+                                            String digest =
+                                                    DatastoreRestServlet.getDigest(message);
+                                            assertEquals(
+                                                    DatastoreRestServlet.getDigest(
+                                                            DatastoreRestServlet.getStoredPayload(
+                                                                    message)),
+                                                    digest);
+                                            assertEquals(
+                                                    ClaimResult.CLAIMED,
+                                                    UploadLedgerEntity.claim(
+                                                            digest,
+                                                            "load-test",
+                                                            message.getTestReportCount(),
+                                                            message.getTestPlanReportCount()));
+                                            DatastoreRestServlet.insertPostMessage(
+                                                    message, MAX_ENTITY_SIZE, keys -> {});
+                                            UploadLedgerEntity.complete(digest);
+                                            latencies.add(System.nanoTime() - messageStart);
+                                            return UploadLedgerEntity.isRecorded(digest);
+                                        });
+                            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertEquals(true, result.get());
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        report(elapsed, latencies);
+
+        ofy().clear();
+        assertEquals(
+                messageCount * moduleCount, ofy().load().type(TestRunEntity.class).count());
+        List<TestPlanRunEntity> planRuns = ofy().load().type(TestPlanRunEntity.class).list();
+        assertEquals(messageCount, planRuns.size());
+        for (TestPlanRunEntity planRun : planRuns) {
+            // Every module of a plan ran on the same device, which the plan run inherits.
+            assertEquals(
+                    1,
+                    ofy().load()
+                            .type(DeviceInfoEntity.class)
+                            .ancestor(planRun.getOfyKey())
+                            .count());
+            assertEquals(
+                    Collections.singletonList(planRun.getTestBuildId()),
+                    planRun.getDeviceBuildId());
+        }
+        // The devices of each run of a plan are queried through the low-level API.
+        assertTrue(
+                lowLevelRpcCounts.getOrDefault("RunQuery", new AtomicLong()).get()
+                        >= messageCount * moduleCount);
+    }
+
+    /** Log the throughput, latency percentiles and datastore calls of a run. */
+    private void report(long elapsedNanos, List<Long> latencies) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        double seconds = elapsedNanos / 1e9;
+        log.info(
+                String.format(
+                        "%d messages (%d reports) on %d threads in %.2fs: %.1f messages/s,"
+                                + " %.1f reports/s",
+                        messageCount,
+                        messageCount * moduleCount,
+                        threadCount,
+                        seconds,
+                        messageCount / seconds,
+                        messageCount * moduleCount / seconds));
+        log.info(
+                String.format(
+                        "latency p50=%dms p90=%dms p99=%dms max=%dms",
+                        percentile(sorted, 0.5),
+                        percentile(sorted, 0.9),
+                        percentile(sorted, 0.99),
+                        percentile(sorted, 1.0)));
+
+        long total = 0;
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : rpcCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+            total += entry.getValue().get();
+        }
+        log.info(
+                String.format(
+                        "datastore calls: %d total, %.1f per message %s",
+                        total, (double) total / messageCount, counts));
+
+        long lowLevelTotal = 0;
+        Map<String, Long> lowLevelCounts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : lowLevelRpcCounts.entrySet()) {
+            lowLevelCounts.put(entry.getKey(), entry.getValue().get());
+            lowLevelTotal += entry.getValue().get();
+        }
+        log.info(
+                String.format(
+                        "low-level datastore calls: %d total, %.1f per message %s",
+                        lowLevelTotal, (double) lowLevelTotal / messageCount, lowLevelCounts));
+    }
+
+    private static long percentile(List<Long> sortedNanos, double fraction) {
+        int index = (int) Math.ceil(fraction * sortedNanos.size()) - 1;
+        long nanos = sortedNanos.get(Math.max(0, index));
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /** Create an upload holding one report per module and a plan report covering all of them. */
+    private DashboardPostMessage createPostMessage(int messageIndex) {
+        DashboardPostMessage.Builder postMessage = DashboardPostMessage.newBuilder();
+        TestPlanReportMessage.Builder planReport =
+                TestPlanReportMessage.newBuilder().setTestPlanName("vts-load-test");
+        String buildId = String.valueOf(4000000 + messageIndex);
+        for (int module = 0; module < moduleCount; module++) {
+            String testName = "LoadTestModule" + module;
+            long startTimestamp = BASE_TIMESTAMP + messageIndex * 1000000L + module * 1000L;
+            postMessage.addTestReport(
+                    createTestReport(testName, startTimestamp, buildId, messageIndex));
+            planReport.addTestModuleName(testName);
+            planReport.addTestModuleStartTimestamp(startTimestamp);
+        }
+        return postMessage.addTestPlanReport(planReport).build();
+    }
+
+    private TestReportMessage createTestReport(
+            String testName, long startTimestamp, String buildId, int messageIndex) {
+        TestReportMessage.Builder report =
+                TestReportMessage.newBuilder()
+                        .setTest(ByteString.copyFromUtf8(testName))
+                        .setStartTimestamp(startTimestamp)
+                        .setEndTimestamp(startTimestamp + 500)
+                        .setBuildInfo(
+                                AndroidBuildInfo.newBuilder()
+                                        .setId(ByteString.copyFromUtf8(buildId))
+                                        .setName(ByteString.copyFromUtf8("test_suites_bitness")))
+                        .setHostInfo(
+                                VtsHostInfo.newBuilder()
+                                        .setHostname(
+                                                ByteString.copyFromUtf8(
+                                                        "host" + messageIndex % 4)))
+                        .addDeviceInfo(
+                                AndroidDeviceInfoMessage.newBuilder()
+                                        .setBuildAlias(
+                                                ByteString.copyFromUtf8(
+                                                        messageIndex % 2 == 0 ? "master" : "pi"))
+                                        .setBuildFlavor(
+                                                ByteString.copyFromUtf8("sailfish-userdebug"))
+                                        .setProductVariant(ByteString.copyFromUtf8("sailfish"))
+                                        .setBuildId(ByteString.copyFromUtf8(buildId))
+                                        .setAbiBitness(ByteString.copyFromUtf8("64"))
+                                        .setAbiName(ByteString.copyFromUtf8("arm64-v8a")));
+
+        for (int i = 0; i < testCaseCount; i++) {
+            report.addTestCase(
+                    TestCaseReportMessage.newBuilder()
+                            .setName(ByteString.copyFromUtf8("testCase" + i))
+                            .setTestResult(
+                                    i % 10 == 0
+                                            ? TestCaseResult.TEST_CASE_RESULT_FAIL
+                                            : TestCaseResult.TEST_CASE_RESULT_PASS));
+        }
+
+        for (int i = 0; i < profilingPointCount; i++) {
+            ProfilingReportMessage.Builder profiling =
+                    ProfilingReportMessage.newBuilder()
+                            .setName(ByteString.copyFromUtf8("profilingPoint" + i))
+                            .setType(VtsProfilingType.VTS_PROFILING_TYPE_LABELED_VECTOR)
+                            .setRegressionMode(
+                                    VtsProfilingRegressionMode.VTS_REGRESSION_MODE_INCREASING)
+                            .setXAxisLabel(ByteString.copyFromUtf8("Message size (bytes)"))
+                            .setYAxisLabel(ByteString.copyFromUtf8("Latency (nanoseconds)"));
+            for (int j = 0; j < profilingValueCount; j++) {
+                profiling.addLabel(ByteString.copyFromUtf8(String.valueOf(1 << (j % 20))));
+                profiling.addValue(1000L + j * 7 + messageIndex);
+            }
+            report.addProfiling(profiling);
+        }
+        return report.build();
+    }
+}
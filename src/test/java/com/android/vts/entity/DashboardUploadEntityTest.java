@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.entity;
+
+import com.android.vts.util.ObjectifyTestBase;
+import org.junit.jupiter.api.Test;
+
+import static com.googlecode.objectify.ObjectifyService.factory;
+import static com.googlecode.objectify.ObjectifyService.ofy;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DashboardUploadEntityTest extends ObjectifyTestBase {
+
+    @Test
+    public void payloadRoundTripTest() {
+
+        factory().register(DashboardUploadEntity.class);
+        factory().register(DashboardUploadChunkEntity.class);
+
+        byte[] payload = new byte[DashboardUploadChunkEntity.MAX_CHUNK_SIZE * 2 + 10];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        DashboardUploadEntity upload = DashboardUploadEntity.create(payload);
+        assertEquals(3, upload.getChunkCount());
+
+        ofy().clear();
+        DashboardUploadEntity loadedUpload = ofy().load().key(upload.getOfyKey()).now();
+        assertArrayEquals(payload, loadedUpload.loadPayload());
+
+        loadedUpload.deletePayload();
+        ofy().clear();
+        assertTrue(
+                ofy().load()
+                        .type(DashboardUploadChunkEntity.class)
+                        .ancestor(upload.getOfyKey())
+                        .list()
+                        .isEmpty());
+    }
+}
@@ -56,4 +56,38 @@ public class TestCaseRunEntityTest extends ObjectifyTestBase {
                 (Integer) loadedTestCaseRunEntity.getTestCases().get(0).result, results.get(0));
         assertEquals(loadedTestCaseRunEntity.getTestCases().get(0).name, testCaseNames.get(0));
     }
+
+    @Test
+    public void savePackedTest() {
+
+        factory().register(TestCaseRunEntity.class);
+
+        List<Integer> results = Arrays.asList(1, 2, 3, 1);
+        List<String> testCaseNames =
+                Arrays.asList(
+                        "AudioEffectsFactoryTest.EnumerateEffects(default)_32bit",
+                        "AudioEffectsFactoryTest.CreateEffect(default)_32bit",
+                        "AudioEffectTest.Close(default)_32bit",
+                        "AudioEffectTest.GetDescriptor(default)_32bit");
+
+        TestCaseRunEntity testCaseRunEntity = new TestCaseRunEntity();
+        for (int index = 0; index < results.size(); index++) {
+            testCaseRunEntity.addTestCase(testCaseNames.get(index), results.get(index));
+        }
+        TestCaseRunEntity.setPackedEncodingEnabled(true);
+        TestCaseRunEntity loadedTestCaseRunEntity;
+        try {
+            loadedTestCaseRunEntity = saveClearLoad(testCaseRunEntity);
+        } finally {
+            TestCaseRunEntity.setPackedEncodingEnabled(false);
+        }
+
+        assertEquals(results.size(), loadedTestCaseRunEntity.getTestCaseCount());
+        for (int index = 0; index < results.size(); index++) {
+            assertEquals(
+                    testCaseNames.get(index), loadedTestCaseRunEntity.getTestCaseName(index));
+            assertEquals((int) results.get(index), loadedTestCaseRunEntity.getResult(index));
+        }
+        assertEquals(testCaseNames.get(2), loadedTestCaseRunEntity.getTestCases().get(2).name);
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncFetchTest {
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+    private final Key parentKey = KeyFactory.createKey("Parent", "parent");
+
+    @Before
+    public void setUp() {
+        helper.setUp();
+    }
+
+    @After
+    public void tearDown() {
+        helper.tearDown();
+    }
+
+    /** Test that a get larger than one batch returns every entity which exists. */
+    @Test
+    public void testGetInBatches() {
+        List<Entity> entities = new ArrayList<>();
+        List<Key> keys = new ArrayList<>();
+        for (long id = 1; id <= 2500; id++) {
+            Entity entity = new Entity(KeyFactory.createKey(parentKey, "Child", id));
+            entities.add(entity);
+            keys.add(entity.getKey());
+        }
+        for (List<Entity> batch : Lists.partition(entities, 500)) {
+            DatastoreServiceFactory.getDatastoreService().put(batch);
+        }
+        keys.add(KeyFactory.createKey(parentKey, "Child", 9999L));
+
+        Supplier<Map<Key, Entity>> pending = AsyncFetch.get(keys);
+        Map<Key, Entity> entityMap = pending.get();
+        assertEquals(2500, entityMap.size());
+        assertTrue(entityMap.containsKey(keys.get(2499)));
+        assertSame(entityMap, pending.get());
+    }
+
+    /** Test that a query and a get started together both complete. */
+    @Test
+    public void testQueryAndGet() {
+        Entity entity = new Entity(KeyFactory.createKey(parentKey, "Child", 1L));
+        DatastoreServiceFactory.getDatastoreService().put(entity);
+
+        Supplier<List<Entity>> pendingQuery =
+                AsyncFetch.query(new Query("Child").setAncestor(parentKey).setKeysOnly());
+        Supplier<Map<Key, Entity>> pendingGet = AsyncFetch.get(new ArrayList<Key>());
+        assertEquals(0, pendingGet.get().size());
+        assertEquals(1, pendingQuery.get().size());
+        assertEquals(entity.getKey(), pendingQuery.get().get(0).getKey());
+    }
+
+    /** Test that more queries than are started at once each return at most the limit. */
+    @Test
+    public void testQueriesWithLimit() {
+        Map<Key, Query> queries = new HashMap<>();
+        for (long parentId = 1; parentId <= 20; parentId++) {
+            Key parent = KeyFactory.createKey("Parent", parentId);
+            for (long id = 1; id <= 3; id++) {
+                DatastoreServiceFactory.getDatastoreService()
+                        .put(new Entity(KeyFactory.createKey(parent, "Child", id)));
+            }
+            queries.put(parent, new Query("Child").setAncestor(parent));
+        }
+
+        Map<Key, List<Entity>> resultMap = AsyncFetch.query(queries, 2).get();
+        assertEquals(20, resultMap.size());
+        for (Map.Entry<Key, List<Entity>> entry : resultMap.entrySet()) {
+            assertEquals(2, entry.getValue().size());
+            assertEquals(entry.getKey(), entry.getValue().get(0).getParent());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.api.services.oauth2.model.Tokeninfo;
+import org.junit.Test;
+
+public class CachedAccessTokenVerifierTest {
+
+    /** Verifier which counts the tokens it is asked to verify. */
+    private static class CountingVerifier implements AccessTokenVerifier {
+        private final int expiresIn;
+        private int calls = 0;
+
+        private CountingVerifier(int expiresIn) {
+            this.expiresIn = expiresIn;
+        }
+
+        @Override
+        public Tokeninfo verify(String accessToken) {
+            this.calls++;
+            return new Tokeninfo().setIssuedTo("client-" + accessToken).setExpiresIn(expiresIn);
+        }
+    }
+
+    /** Test that a verified token isn't sent to the delegate again before it expires. */
+    @Test
+    public void testVerifiedTokenIsCached() throws Exception {
+        CountingVerifier delegate = new CountingVerifier(3600);
+        CachedAccessTokenVerifier verifier = new CachedAccessTokenVerifier(delegate, null);
+
+        assertEquals("client-a", verifier.verify("a").getIssuedTo());
+        assertEquals("client-a", verifier.verify("a").getIssuedTo());
+        assertEquals(1, delegate.calls);
+
+        assertEquals("client-b", verifier.verify("b").getIssuedTo());
+        assertEquals(2, delegate.calls);
+    }
+
+    /** Test that tokens without a remaining lifetime are always verified remotely. */
+    @Test
+    public void testExpiredTokenIsNotCached() throws Exception {
+        CountingVerifier delegate = new CountingVerifier(0);
+        CachedAccessTokenVerifier verifier = new CachedAccessTokenVerifier(delegate, null);
+
+        verifier.verify("a");
+        verifier.verify("a");
+        assertEquals(2, delegate.calls);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.TestRunEntity;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+public class FilterPlannerTest {
+    private static final String INDEX_FILE = "src/main/webapp/WEB-INF/datastore-indexes.xml";
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+    private Filter timeFilter;
+
+    @Before
+    public void setUp() {
+        helper.setUp();
+        timeFilter =
+                CompositeFilterOperator.and(
+                        new FilterPredicate(
+                                Entity.KEY_RESERVED_PROPERTY,
+                                FilterOperator.LESS_THAN_OR_EQUAL,
+                                KeyFactory.createKey(TestRunEntity.KIND, 1000L)),
+                        new FilterPredicate(TestRunEntity.TYPE, FilterOperator.EQUAL, 1));
+    }
+
+    @After
+    public void tearDown() {
+        helper.tearDown();
+    }
+
+    /** Test that an indexed combination of run filters is pushed into a single query. */
+    @Test
+    public void testSingleQuery() {
+        Filter hostFilter =
+                new FilterPredicate(TestRunEntity.HOST_NAME, FilterOperator.EQUAL, "host");
+        Filter passFilter =
+                new FilterPredicate(TestRunEntity.PASS_COUNT, FilterOperator.GREATER_THAN, 5L);
+        FilterPlanner.Plan plan =
+                FilterPlanner.plan(
+                        TestRunEntity.KIND,
+                        Arrays.asList(timeFilter, hostFilter, passFilter),
+                        null,
+                        SortDirection.DESCENDING);
+        assertTrue(plan.isIndexed());
+        assertEquals(1, plan.getStreamFilters().size());
+        assertEquals(Arrays.asList(passFilter), plan.getResidualFilters());
+    }
+
+    /** Test that a device filter without a composite index is not planned as indexed. */
+    @Test
+    public void testUnindexedDeviceFilter() {
+        Filter deviceFilter =
+                new FilterPredicate(DeviceInfoEntity.BUILD_ID, FilterOperator.EQUAL, "1234");
+        FilterPlanner.Plan plan =
+                FilterPlanner.plan(
+                        TestRunEntity.KIND,
+                        Arrays.asList(timeFilter),
+                        deviceFilter,
+                        SortDirection.DESCENDING);
+        assertFalse(plan.isIndexed());
+    }
+
+    /** Test that device filters moved onto the run are served by the run indexes. */
+    @Test
+    public void testRunDeviceFilter() {
+        Filter runDeviceFilter =
+                FilterUtil.toRunDeviceFilter(
+                        CompositeFilterOperator.and(
+                                new FilterPredicate(
+                                        DeviceInfoEntity.BRANCH, FilterOperator.EQUAL, "master"),
+                                new FilterPredicate(
+                                        DeviceInfoEntity.BUILD_FLAVOR,
+                                        FilterOperator.EQUAL,
+                                        "walleye-userdebug")));
+        FilterPlanner.Plan plan =
+                FilterPlanner.plan(
+                        TestRunEntity.KIND,
+                        Arrays.asList(timeFilter, runDeviceFilter),
+                        null,
+                        SortDirection.DESCENDING);
+        assertTrue(plan.isIndexed());
+        assertEquals(1, plan.getStreamFilters().size());
+        assertTrue(plan.getResidualFilters().isEmpty());
+    }
+
+    /** Test that every index the planner relies on is declared in datastore-indexes.xml. */
+    @Test
+    public void testIndexesDeclared() throws Exception {
+        Set<String> declared = new HashSet<>();
+        NodeList indexes =
+                DocumentBuilderFactory.newInstance()
+                        .newDocumentBuilder()
+                        .parse(new File(INDEX_FILE))
+                        .getElementsByTagName("datastore-index");
+        for (int i = 0; i < indexes.getLength(); i++) {
+            Element index = (Element) indexes.item(i);
+            if (!Boolean.parseBoolean(index.getAttribute("ancestor"))) {
+                continue;
+            }
+            NodeList properties = index.getElementsByTagName("property");
+            Element keySort = (Element) properties.item(properties.getLength() - 1);
+            if (!keySort.getAttribute("name").equals(Entity.KEY_RESERVED_PROPERTY)) {
+                continue;
+            }
+            // Equality filters are served in any order of the leading properties.
+            Set<String> names = new TreeSet<>();
+            for (int j = 0; j < properties.getLength() - 1; j++) {
+                names.add(((Element) properties.item(j)).getAttribute("name"));
+            }
+            declared.add(index.getAttribute("kind") + names + keySort.getAttribute("direction"));
+        }
+
+        for (SortDirection dir : SortDirection.values()) {
+            String direction = dir == SortDirection.DESCENDING ? "desc" : "asc";
+            for (Map.Entry<String, List<Set<String>>> entry :
+                    FilterPlanner.getIndexes(dir).entrySet()) {
+                for (Set<String> properties : entry.getValue()) {
+                    String index = entry.getKey() + new TreeSet<>(properties) + direction;
+                    assertTrue("Undeclared index " + index, declared.contains(index));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.TestRunEntity;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import org.junit.Test;
+
+public class FilterUtilTest {
+    private final Filter branchFilter =
+            new FilterPredicate(DeviceInfoEntity.BRANCH, FilterOperator.EQUAL, "master");
+    private final Filter flavorFilter =
+            new FilterPredicate(
+                    DeviceInfoEntity.BUILD_FLAVOR, FilterOperator.EQUAL, "walleye-userdebug");
+
+    /** Test that an equality filter on a device property is moved onto the run. */
+    @Test
+    public void testRunDeviceFilter() {
+        assertEquals(
+                new FilterPredicate(TestRunEntity.DEVICE_BRANCH, FilterOperator.EQUAL, "master"),
+                FilterUtil.toRunDeviceFilter(branchFilter));
+    }
+
+    /** Test that a conjunction of device filters is moved onto the run as a conjunction. */
+    @Test
+    public void testRunDeviceFilterAnd() {
+        assertEquals(
+                CompositeFilterOperator.and(
+                        new FilterPredicate(
+                                TestRunEntity.DEVICE_BRANCH, FilterOperator.EQUAL, "master"),
+                        new FilterPredicate(
+                                TestRunEntity.DEVICE_BUILD_FLAVOR,
+                                FilterOperator.EQUAL,
+                                "walleye-userdebug")),
+                FilterUtil.toRunDeviceFilter(
+                        CompositeFilterOperator.and(branchFilter, flavorFilter)));
+    }
+
+    /** Test that device filters which the run properties can't serve are not rewritten. */
+    @Test
+    public void testRunDeviceFilterNotRewritten() {
+        Filter buildIdFilter =
+                new FilterPredicate(
+                        DeviceInfoEntity.BUILD_ID, FilterOperator.GREATER_THAN, "1234");
+        assertNull(FilterUtil.toRunDeviceFilter(buildIdFilter));
+        assertNull(
+                FilterUtil.toRunDeviceFilter(
+                        CompositeFilterOperator.and(branchFilter, buildIdFilter)));
+        assertNull(
+                FilterUtil.toRunDeviceFilter(
+                        CompositeFilterOperator.or(branchFilter, flavorFilter)));
+        assertNull(
+                FilterUtil.toRunDeviceFilter(
+                        new FilterPredicate(
+                                DeviceInfoEntity.ABI_NAME, FilterOperator.EQUAL, "arm64-v8a")));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+
+public class MergeJoinTest {
+
+    /** Test that only values present in every stream are returned, in order. */
+    @Test
+    public void testIntersect() {
+        List<Iterator<Integer>> streams =
+                Arrays.asList(
+                        Arrays.asList(9, 8, 6, 5, 3, 1).iterator(),
+                        Arrays.asList(9, 7, 6, 3, 2, 1).iterator(),
+                        Arrays.asList(10, 9, 6, 4, 3, 1).iterator());
+        assertEquals(
+                Arrays.asList(9, 6, 3, 1),
+                MergeJoin.intersect(streams, Comparator.reverseOrder(), v -> true, 10));
+    }
+
+    /** Test that the streams are not read past the last match needed. */
+    @Test
+    public void testStopsAtMaxSize() {
+        Iterator<Integer> first = Arrays.asList(1, 2, 3, 4, 5, 6).iterator();
+        Iterator<Integer> second = Arrays.asList(1, 2, 3, 4, 5, 6).iterator();
+        assertEquals(
+                Arrays.asList(2, 4),
+                MergeJoin.intersect(
+                        Arrays.asList(first, second),
+                        Comparator.naturalOrder(),
+                        v -> v % 2 == 0,
+                        2));
+        assertEquals(Integer.valueOf(5), first.next());
+    }
+
+    /** Test that an empty stream has no matches. */
+    @Test
+    public void testEmptyStream() {
+        List<Iterator<Integer>> streams =
+                Arrays.asList(
+                        Arrays.asList(1, 2).iterator(), Collections.<Integer>emptyIterator());
+        assertEquals(
+                Collections.emptyList(),
+                MergeJoin.intersect(streams, Comparator.naturalOrder(), v -> true, 10));
+    }
+}
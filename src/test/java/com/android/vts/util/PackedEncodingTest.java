@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class PackedEncodingTest {
+
+    /** Test that longs survive packing, including large jumps between values. */
+    @Test
+    public void testLongsRoundTrip() {
+        List<Long> values = Arrays.asList(5L, 7L, 7L, -3L, Long.MAX_VALUE, Long.MIN_VALUE, 0L);
+        assertEquals(values, PackedEncoding.decodeLongs(PackedEncoding.encodeLongs(values)));
+    }
+
+    /** Test that slowly changing series are stored in about a byte per value. */
+    @Test
+    public void testLongsArePacked() {
+        Long[] values = new Long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000000000L + i;
+        }
+        byte[] packed = PackedEncoding.encodeLongs(Arrays.asList(values));
+        assertEquals(true, packed.length < 1100);
+    }
+
+    /** Test that strings survive packing. */
+    @Test
+    public void testStringsRoundTrip() {
+        List<String> values = Arrays.asList("1", "", "label é", "1024");
+        assertEquals(values, PackedEncoding.decodeStrings(PackedEncoding.encodeStrings(values)));
+        assertEquals(
+                Collections.emptyList(),
+                PackedEncoding.decodeStrings(
+                        PackedEncoding.encodeStrings(Collections.emptyList())));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import static com.googlecode.objectify.ObjectifyService.factory;
+import static org.junit.Assert.assertEquals;
+
+import com.android.vts.entity.BranchEntity;
+import com.android.vts.entity.DashboardEntity;
+import com.android.vts.util.RpcAccounting.CallRecord;
+import com.android.vts.util.RpcAccounting.RequestRecord;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.googlecode.objectify.ObjectifyFactory;
+import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.util.Closeable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RpcAccountingTest extends ObjectifyTestBase {
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+    private Closeable rootService;
+
+    @BeforeEach
+    public void setUp() {
+        helper.setUp();
+        RpcAccounting.install();
+        setEnabled(true);
+
+        ObjectifyService.init(new ObjectifyFactory(RpcAccounting.wrap(factory().datastore())));
+        rootService = ObjectifyService.begin();
+        factory().register(BranchEntity.class);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        rootService.close();
+        setEnabled(false);
+        helper.tearDown();
+    }
+
+    private static void setEnabled(boolean enabled) {
+        Properties properties = new Properties();
+        properties.setProperty("rpcAccounting.enabled", String.valueOf(enabled));
+        properties.setProperty("rpcAccounting.sampleRate", "1");
+        RpcAccounting.setPropertyValues(properties);
+    }
+
+    /** Get the number of calls of a method made by a request. */
+    private static long getCalls(RequestRecord record, String method) {
+        long calls = 0;
+        for (CallRecord call : record.getCalls()) {
+            if (call.getMethod().equals(method)) {
+                calls += call.getCalls();
+            }
+        }
+        return calls;
+    }
+
+    /** Test that a call through the low-level DatastoreService is recorded. */
+    @Test
+    public void testDatastoreServiceCall() {
+        RpcAccounting.begin("testDatastoreServiceCall");
+        DatastoreServiceFactory.getDatastoreService().put(new Entity("Child", 1L));
+        RequestRecord record = RpcAccounting.end();
+
+        assertEquals(1, getCalls(record, "Put"));
+    }
+
+    /** Test that Objectify calls are recorded, including those made on worker threads. */
+    @Test
+    public void testObjectifyCalls() {
+        RpcAccounting.begin("testObjectifyCalls");
+        new BranchEntity("master").save();
+        List<BranchEntity> branches =
+                Arrays.asList(new BranchEntity("a"), new BranchEntity("b"), new BranchEntity("c"));
+        DashboardEntity.waitAll(DashboardEntity.saveAllAsync(branches, 1));
+        RequestRecord record = RpcAccounting.end();
+
+        assertEquals(4, getCalls(record, "put"));
+        assertEquals(4, record.getTotalEntities());
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package com.android.vts.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.android.vts.entity.DeviceInfoEntity;
+import com.android.vts.entity.TestRunEntity;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class UserFilterTest {
+
+    /** Test that parameters are validated and written back in canonical form. */
+    @Test
+    public void testCanonicalValues() {
+        Map<String, String[]> parameterMap = new HashMap<>();
+        parameterMap.put("passing", new String[] {" >= 5 "});
+        parameterMap.put("nonpassing", new String[] {"many"});
+        parameterMap.put("hostname", new String[] {"Host1"});
+        parameterMap.put("branch", new String[] {"master"});
+        parameterMap.put("testName", new String[] {"TEST"});
+
+        UserFilter userFilter = UserFilter.compile(parameterMap);
+        assertEquals("branch=master&hostname=host1&passing=>=5", userFilter.toString());
+        assertEquals(
+                Arrays.asList(
+                        new FilterPredicate(TestRunEntity.HOST_NAME, FilterOperator.EQUAL, "host1"),
+                        new FilterPredicate(
+                                TestRunEntity.PASS_COUNT,
+                                FilterOperator.GREATER_THAN_OR_EQUAL,
+                                5L)),
+                userFilter.getTestFilters());
+        assertEquals(
+                new FilterPredicate(DeviceInfoEntity.BRANCH, FilterOperator.EQUAL, "master"),
+                userFilter.getDeviceFilter());
+    }
+
+    /** Test that the same filter parameters share one compiled filter. */
+    @Test
+    public void testCached() {
+        Map<String, String[]> parameterMap = new HashMap<>();
+        parameterMap.put("device", new String[] {"walleye-userdebug"});
+        UserFilter userFilter = UserFilter.compile(parameterMap);
+
+        parameterMap.put("testName", new String[] {"OTHER"});
+        assertSame(userFilter, UserFilter.compile(parameterMap));
+        assertNull(UserFilter.compile(new HashMap<>()).getDeviceFilter());
+    }
+
+    /** Test that parameters with the same string form do not share a compiled filter. */
+    @Test
+    public void testCachedByValue() {
+        Map<String, String[]> parameterMap = new HashMap<>();
+        parameterMap.put("branch", new String[] {"x"});
+        parameterMap.put("device", new String[] {"y"});
+        UserFilter userFilter = UserFilter.compile(parameterMap);
+
+        Map<String, String[]> otherParameterMap = new HashMap<>();
+        otherParameterMap.put("branch", new String[] {"x, device=y"});
+        UserFilter otherUserFilter = UserFilter.compile(otherParameterMap);
+        assertNotSame(userFilter, otherUserFilter);
+        assertEquals("x, device=y", otherUserFilter.getValues().get("branch"));
+        assertNull(otherUserFilter.getValues().get("device"));
+    }
+}